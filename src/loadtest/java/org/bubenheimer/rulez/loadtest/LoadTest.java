@@ -0,0 +1,426 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez.loadtest;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.bubenheimer.rulez.BreadthFirstRuleEngine;
+import org.bubenheimer.rulez.Fact;
+import org.bubenheimer.rulez.FactChangeAction;
+import org.bubenheimer.rulez.FactState;
+import org.bubenheimer.rulez.Rule;
+import org.bubenheimer.rulez.RuleBase;
+import org.bubenheimer.rulez.RuleEngine;
+import org.bubenheimer.rulez.fluent.When;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Soak and load test driver. Creates many {@link BreadthFirstRuleEngine} sessions over a
+ * synthetic rule base and drives random fact changes from several threads, each thread owning a
+ * partition of the sessions. Reports throughput, the latency percentiles of fact changes
+ * including their evaluation, the allocation rate of the driving threads, and garbage collection
+ * activity during the measurement.</p>
+ *
+ * <p>The synthetic rule base is layered so that evaluation always terminates: the first facts are
+ * inputs changed by the driver, and each rule only writes a fact with a higher ID than all facts
+ * of its left-hand side. Rules are {@link Rule#MATCH_RESET} or {@link Rule#MATCH_ONCE} rules with
+ * {@link FactChangeAction}s. Sessions occasionally end and start over via
+ * {@link RuleEngine#clearState()}.</p>
+ *
+ * <p>Options are given as {@code name=value} arguments; run with {@code help} to list them.
+ * The load is closed-loop: each thread issues its next change as soon as the previous one
+ * completes.</p>
+ */
+public final class LoadTest {
+    /**
+     * Options and their defaults.
+     */
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    /**
+     * The rule base under test. Rule engines reference their rule base only weakly, so this keeps
+     * it strongly reachable for the whole run.
+     */
+    private static RuleBase ruleBase;
+
+    static {
+        DEFAULTS.put("engines", "10000");
+        DEFAULTS.put("threads", Integer.toString(Runtime.getRuntime().availableProcessors()));
+        DEFAULTS.put("facts", "32");
+        DEFAULTS.put("inputs", "8");
+        DEFAULTS.put("rules", "32");
+        DEFAULTS.put("onceRulePercent", "20");
+        DEFAULTS.put("sessionEndPermille", "1");
+        DEFAULTS.put("matchTable", "false");
+        DEFAULTS.put("warmupSeconds", "10");
+        DEFAULTS.put("durationSeconds", "30");
+        DEFAULTS.put("seed", "1");
+    }
+
+    /**
+     * Records values in buckets of about 3% relative precision.
+     */
+    static final class Histogram {
+        /**
+         * log2 of the number of sub-buckets per power of 2
+         */
+        private static final int SUB_BUCKET_BITS = 5;
+
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final long[] counts = new long[64 << SUB_BUCKET_BITS];
+
+        private long count;
+
+        private long max;
+
+        void record(final long value) {
+            ++counts[index(value)];
+            ++count;
+            if (value > max) {
+                max = value;
+            }
+        }
+
+        void add(final Histogram other) {
+            for (int i = 0; i < counts.length; ++i) {
+                counts[i] += other.counts[i];
+            }
+            count += other.count;
+            max = Math.max(max, other.max);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        long getMax() {
+            return max;
+        }
+
+        /**
+         * @param percentile the percentile, between 0 and 100
+         * @return the highest value equivalent to the value at the percentile
+         */
+        long getValueAtPercentile(final double percentile) {
+            final long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * count));
+            long cumulative = 0L;
+            for (int i = 0; i < counts.length; ++i) {
+                cumulative += counts[i];
+                if (cumulative >= rank) {
+                    return Math.min(highestEquivalentValue(i), max);
+                }
+            }
+            return max;
+        }
+
+        private static int index(final long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) Math.max(0L, value);
+            }
+            final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            return (shift + 1 << SUB_BUCKET_BITS) + ((int) (value >>> shift) & SUB_BUCKETS - 1);
+        }
+
+        private static long highestEquivalentValue(final int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+            final long subBucket = SUB_BUCKETS + (index & SUB_BUCKETS - 1);
+            return (subBucket + 1 << shift) - 1;
+        }
+    }
+
+    /**
+     * Drives fact changes on a partition of the sessions.
+     */
+    private static final class Worker extends Thread {
+        private final RuleEngine[] ruleEngines;
+
+        private final int inputs;
+
+        private final int sessionEndPermille;
+
+        private final SplittableRandom random;
+
+        final Histogram histogram = new Histogram();
+
+        volatile boolean measuring = false;
+
+        volatile boolean stopped = false;
+
+        Worker(final int index, final RuleEngine[] ruleEngines, final int inputs,
+               final int sessionEndPermille, final long seed) {
+            super("load-" + index);
+            setDaemon(true);
+            this.ruleEngines = ruleEngines;
+            this.inputs = inputs;
+            this.sessionEndPermille = sessionEndPermille;
+            random = new SplittableRandom(seed);
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                final RuleEngine ruleEngine = ruleEngines[random.nextInt(ruleEngines.length)];
+                if (random.nextInt(1000) < sessionEndPermille) {
+                    ruleEngine.clearState();
+                }
+                final int input = 1 << random.nextInt(inputs);
+                final FactState factState = ruleEngine.getFactState();
+                final boolean remove = (factState.getState() & input) != 0;
+                final long start = System.nanoTime();
+                if (remove) {
+                    factState.removeFacts(input);
+                } else {
+                    factState.addFacts(input);
+                }
+                final long latency = System.nanoTime() - start;
+                if (measuring) {
+                    histogram.record(latency);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tracks the longest garbage collection reported while measuring.
+     */
+    private static final class GcListener implements NotificationListener {
+        volatile boolean measuring = false;
+
+        /**
+         * The longest collection duration in milliseconds, by collector name.
+         */
+        final Map<String, Long> maxDurations = Collections.synchronizedMap(new LinkedHashMap<>());
+
+        @Override
+        public void handleNotification(final Notification notification, final Object handback) {
+            if (!measuring || !GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION
+                    .equals(notification.getType())) {
+                return;
+            }
+            final GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+                    .from((CompositeData) notification.getUserData());
+            final long duration = info.getGcInfo().getDuration();
+            synchronized (maxDurations) {
+                final Long max = maxDurations.get(info.getGcName());
+                if (max == null || duration > max) {
+                    maxDurations.put(info.getGcName(), duration);
+                }
+            }
+        }
+    }
+
+    private LoadTest() {
+    }
+
+    /**
+     * @param args options as {@code name=value} arguments
+     * @throws InterruptedException if interrupted
+     */
+    public static void main(final String[] args) throws InterruptedException {
+        final Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+        for (final String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator < 0 || !DEFAULTS.containsKey(arg.substring(0, separator))) {
+                System.out.println("Options (name=value) and defaults: " + DEFAULTS);
+                return;
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        final int engineCount = Integer.parseInt(options.get("engines"));
+        final int threadCount = Integer.parseInt(options.get("threads"));
+        final int inputs = Integer.parseInt(options.get("inputs"));
+        final int sessionEndPermille = Integer.parseInt(options.get("sessionEndPermille"));
+        final int warmupSeconds = Integer.parseInt(options.get("warmupSeconds"));
+        final int durationSeconds = Integer.parseInt(options.get("durationSeconds"));
+        final long seed = Long.parseLong(options.get("seed"));
+        if (engineCount < threadCount || threadCount < 1 || durationSeconds < 1) {
+            throw new IllegalArgumentException("Invalid options: " + options);
+        }
+        System.out.println("Options: " + options);
+
+        ruleBase = newRuleBase(Integer.parseInt(options.get("facts")), inputs,
+                Integer.parseInt(options.get("rules")),
+                Integer.parseInt(options.get("onceRulePercent")), seed);
+        if (Boolean.parseBoolean(options.get("matchTable"))) {
+            System.out.println("Match table compiled: " + ruleBase.compileMatchTable());
+        }
+
+        final Worker[] workers = new Worker[threadCount];
+        for (int i = 0; i < threadCount; ++i) {
+            final RuleEngine[] ruleEngines =
+                    new RuleEngine[(engineCount - i + threadCount - 1) / threadCount];
+            for (int j = 0; j < ruleEngines.length; ++j) {
+                ruleEngines[j] = new BreadthFirstRuleEngine();
+                ruleEngines[j].setRuleBase(ruleBase);
+            }
+            workers[i] = new Worker(i, ruleEngines, inputs, sessionEndPermille, seed + i + 1);
+        }
+
+        final GcListener gcListener = new GcListener();
+        final List<GarbageCollectorMXBean> gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
+        for (final GarbageCollectorMXBean gcBean : gcBeans) {
+            if (gcBean instanceof NotificationEmitter) {
+                ((NotificationEmitter) gcBean).addNotificationListener(gcListener, null, null);
+            }
+        }
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        final com.sun.management.ThreadMXBean allocationBean =
+                threadBean instanceof com.sun.management.ThreadMXBean
+                        && ((com.sun.management.ThreadMXBean) threadBean)
+                        .isThreadAllocatedMemorySupported()
+                        ? (com.sun.management.ThreadMXBean) threadBean : null;
+
+        for (final Worker worker : workers) {
+            worker.start();
+        }
+        System.out.println("Warming up for " + warmupSeconds + " s");
+        TimeUnit.SECONDS.sleep(warmupSeconds);
+
+        final long[] gcCounts = new long[gcBeans.size()];
+        final long[] gcTimes = new long[gcBeans.size()];
+        for (int i = 0; i < gcCounts.length; ++i) {
+            gcCounts[i] = gcBeans.get(i).getCollectionCount();
+            gcTimes[i] = gcBeans.get(i).getCollectionTime();
+        }
+        final long allocatedBytes = allocatedBytes(allocationBean, workers);
+        gcListener.measuring = true;
+        for (final Worker worker : workers) {
+            worker.measuring = true;
+        }
+        final long start = System.nanoTime();
+        System.out.println("Measuring for " + durationSeconds + " s");
+        TimeUnit.SECONDS.sleep(durationSeconds);
+        // Terminated threads report no allocations
+        final long measuredBytes = allocatedBytes(allocationBean, workers) - allocatedBytes;
+        for (final Worker worker : workers) {
+            worker.stopped = true;
+        }
+        for (final Worker worker : workers) {
+            worker.join();
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        gcListener.measuring = false;
+
+        final Histogram histogram = new Histogram();
+        for (final Worker worker : workers) {
+            histogram.add(worker.histogram);
+        }
+        System.out.printf(Locale.US, "Throughput: %.0f changes/s (%d changes)%n",
+                histogram.getCount() / seconds, histogram.getCount());
+        System.out.printf(Locale.US,
+                "Latency (us): p50 %.2f, p99 %.2f, p99.9 %.2f, p99.99 %.2f, max %.2f%n",
+                histogram.getValueAtPercentile(50.0) / 1e3,
+                histogram.getValueAtPercentile(99.0) / 1e3,
+                histogram.getValueAtPercentile(99.9) / 1e3,
+                histogram.getValueAtPercentile(99.99) / 1e3, histogram.getMax() / 1e3);
+        if (allocationBean != null) {
+            System.out.printf(Locale.US, "Allocation: %.2f MB/s, %.1f bytes/change%n",
+                    measuredBytes / seconds / 1e6,
+                    (double) measuredBytes / Math.max(1L, histogram.getCount()));
+        }
+        long gcTime = 0L;
+        for (int i = 0; i < gcCounts.length; ++i) {
+            final GarbageCollectorMXBean gcBean = gcBeans.get(i);
+            final long time = gcBean.getCollectionTime() - gcTimes[i];
+            gcTime += time;
+            final Long maxDuration = gcListener.maxDurations.get(gcBean.getName());
+            System.out.printf(Locale.US, "GC %s: %d collections, %d ms total, %d ms max%n",
+                    gcBean.getName(), gcBean.getCollectionCount() - gcCounts[i], time,
+                    maxDuration == null ? 0L : maxDuration);
+        }
+        System.out.printf(Locale.US, "GC time: %.2f%% of wall time"
+                + " (includes concurrent phases for concurrent collectors)%n",
+                gcTime / (seconds * 10.0));
+    }
+
+    /**
+     * Generates a layered synthetic rule base.
+     * @param factCount       the number of facts
+     * @param inputs          the number of input facts, the first facts
+     * @param ruleCount       the number of rules
+     * @param onceRulePercent the percentage of {@link Rule#MATCH_ONCE} rules
+     * @param seed            the seed
+     * @return the rule base
+     */
+    static RuleBase newRuleBase(final int factCount, final int inputs, final int ruleCount,
+                                final int onceRulePercent, final long seed) {
+        if (inputs < 1 || inputs >= factCount || factCount > RuleBase.MAX_FACTS
+                || ruleCount > RuleBase.MAX_RULES) {
+            throw new IllegalArgumentException("facts: " + factCount + ", inputs: " + inputs
+                    + ", rules: " + ruleCount);
+        }
+        final SplittableRandom random = new SplittableRandom(seed);
+        final RuleBase ruleBase = new RuleBase();
+        final Fact[] facts = new Fact[factCount];
+        for (int i = 0; i < factCount; ++i) {
+            facts[i] = ruleBase.newFact("f" + i);
+        }
+        for (int i = 0; i < ruleCount; ++i) {
+            final int output = random.nextInt(inputs, factCount);
+            final When when = ruleBase.rule("r" + i,
+                    random.nextInt(100) < onceRulePercent ? Rule.MATCH_ONCE : Rule.MATCH_RESET)
+                    .when(facts[random.nextInt(output)]);
+            final int conditionCount = random.nextInt(3);
+            for (int j = 0; j < conditionCount; ++j) {
+                when.and(facts[random.nextInt(output)]);
+            }
+            final boolean add = random.nextInt(4) != 0;
+            final FactChangeAction action = new FactChangeAction(
+                    add ? ruleBase.newFactSet(facts[output]) : ruleBase.newFactSet(),
+                    add ? ruleBase.newFactSet() : ruleBase.newFactSet(facts[output]));
+            final Rule rule = random.nextBoolean()
+                    ? when.andNot(facts[random.nextInt(output)]).then(action)
+                    : when.then(action);
+            rule.setWrittenFacts(facts[output]);
+        }
+        return ruleBase;
+    }
+
+    /**
+     * @param allocationBean the thread bean supporting allocation counts. May be null.
+     * @param workers        the workers
+     * @return the bytes allocated by the workers so far
+     */
+    private static long allocatedBytes(
+            final com.sun.management.ThreadMXBean allocationBean, final Worker[] workers) {
+        long bytes = 0L;
+        if (allocationBean != null) {
+            for (final Worker worker : workers) {
+                bytes += allocationBean.getThreadAllocatedBytes(worker.getId());
+            }
+        }
+        return bytes;
+    }
+}
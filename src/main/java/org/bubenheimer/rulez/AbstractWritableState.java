@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+/**
+ * A {@link WritableState} implementing all fact changes in terms of
+ * {@link #addRemoveFacts(int, int)}.
+ */
+abstract class AbstractWritableState implements WritableState {
+    @Override
+    public void addFact(final Fact fact) {
+        addRemoveFacts(1 << fact.id, 0);
+    }
+
+    @Override
+    public void addFacts(final Fact... facts) {
+        addRemoveFacts(factVector(facts), 0);
+    }
+
+    @Override
+    public void removeFact(final Fact fact) {
+        addRemoveFacts(0, 1 << fact.id);
+    }
+
+    @Override
+    public void removeFacts(final Fact... facts) {
+        addRemoveFacts(0, factVector(facts));
+    }
+
+    @Override
+    public void addRemoveFacts(final Fact addFact, final Fact removeFact) {
+        addRemoveFacts(1 << addFact.id, 1 << removeFact.id);
+    }
+
+    @Override
+    public void addRemoveFacts(final Fact[] addFacts, final Fact[] removeFacts) {
+        addRemoveFacts(factVector(addFacts), factVector(removeFacts));
+    }
+
+    static int factVector(final Fact[] facts) {
+        int factVector = 0;
+        for (final Fact fact : facts) {
+            factVector |= 1 << fact.id;
+        }
+        return factVector;
+    }
+}
@@ -35,7 +35,9 @@ import java.util.logging.Logger;
  */
 @SuppressWarnings("WeakerAccess")
 public class BreadthFirstRuleEngine extends RuleEngine {
-    private static final Logger LOG = Logger.getLogger(BreadthFirstRuleEngine.class.getName());
+    private static final class Log {
+        static final Logger LOG = Logger.getLogger(BreadthFirstRuleEngine.class.getName());
+    }
 
     /**
      * A bit mask for the match state of all rules. Indicates whether a rule has already fired.
@@ -57,28 +59,29 @@ public class BreadthFirstRuleEngine extends RuleEngine {
      * A {@link ReadableState} representing the current rule base state to pass to rule bodies.
      * There is just a single one to avoid garbage collection issues.
      */
-    private final BaseState baseState = new BaseState();
+    final StateSnapshot baseState = new StateSnapshot();
 
     /**
-     * Represents the current rule base state to pass to rule bodies.
+     * The fact state evaluated by the last evaluation pass.
      */
-    private static final class BaseState implements ReadableState {
-        /**
-         * the current state
-         */
-        int state;
-
-        @Override
-        public boolean isValid(final Fact fact) {
-            return false;
-        }
-    }
+    private int evaluatedState;
+
+    /**
+     * The number of rules evaluated by the last evaluation pass, or -1 if evaluation needs to
+     * start over from scratch.
+     */
+    private int evaluatedRuleCount = -1;
+
+    /**
+     * Receives transitions looked up in a {@link TransitionCache}.
+     */
+    private final int[] transition = new int[3];
 
     /**
      * @return a bit mask for the match state of all rules. Indicates whether a rule has
      * already fired.
      */
-    @SuppressWarnings("WeakerAccess")
+    @Override
     protected final int getRuleMatchState() {
         return ruleMatchState;
     }
@@ -90,18 +93,126 @@ public class BreadthFirstRuleEngine extends RuleEngine {
     @SuppressWarnings("WeakerAccess")
     protected final void setRuleMatchState(final int state) {
         ruleMatchState = state;
+        evaluatedRuleCount = -1;
     }
 
     @Override
     public void clearState() {
         super.clearState();
-        ruleMatchState = 0;
+        setRuleMatchState(0);
     }
 
     @Override
     public void setRuleBase(final RuleBase ruleBase) {
         super.setRuleBase(ruleBase);
-        ruleMatchState = 0;
+        setRuleMatchState(0);
+    }
+
+    /**
+     * Carries over the match state of rules present in both rule bases, identified by rule name
+     * and match type, so that {@link Rule#MATCH_ONCE} rules do not fire again.
+     */
+    @Override
+    protected void onRuleBaseSwap(final RuleBase oldRuleBase, final RuleBase newRuleBase) {
+        int newRuleMatchState = 0;
+        if (oldRuleBase != null) {
+            int mappedRules = 0;
+            final int oldRuleCount = oldRuleBase.rules.size();
+            final int newRuleCount = newRuleBase.rules.size();
+            for (int i = 0; i < newRuleCount; ++i) {
+                final Rule newRule = newRuleBase.rules.get(i);
+                for (int j = 0; j < oldRuleCount; ++j) {
+                    final Rule oldRule = oldRuleBase.rules.get(j);
+                    if ((mappedRules & 1 << j) == 0
+                            && oldRule.matchType == newRule.matchType
+                            && oldRule.getName().equals(newRule.getName())) {
+                        mappedRules |= 1 << j;
+                        newRuleMatchState |= (ruleMatchState >>> j & 1) << i;
+                        break;
+                    }
+                }
+            }
+        }
+        setRuleMatchState(newRuleMatchState);
+    }
+
+    /**
+     * <p>Exercises the evaluation paths for a rule base, so that they are JIT-compiled before
+     * live traffic arrives. Applies pseudo-random fact and counter changes to a scratch rule
+     * engine evaluating a copy of the rule base, including a precomputed match table, exclusive
+     * fact groups and counters, if any. The copy's rule actions do nothing, so the rule base's
+     * rule actions are not run, and no fact state is persisted.</p>
+     *
+     * <p>Call after the rule base is completely initialized. Around 20,000 changes typically
+     * suffice for the evaluation loop to reach the optimizing compiler.</p>
+     *
+     * @param ruleBase the rule base
+     * @param changes  the number of fact changes to apply
+     */
+    @SuppressWarnings("unused")
+    public static void warmUp(final RuleBase ruleBase, final int changes) {
+        final RuleBase scratchRuleBase = new RuleBase();
+        final int factCount = ruleBase.getFactCount();
+        if (factCount == 0) {
+            return;
+        }
+        for (int i = 0; i < factCount; ++i) {
+            scratchRuleBase.newFact(ruleBase.facts[i].name);
+        }
+        for (final Rule rule : ruleBase.rules) {
+            scratchRuleBase.addRule(new Rule(rule, new RuleAction() {
+                @Override
+                public void fire(final ReadableState oldState, final WritableState newState) {
+                }
+            }));
+        }
+        scratchRuleBase.moduleGates = ruleBase.moduleGates;
+        scratchRuleBase.moduleRules = ruleBase.moduleRules;
+        scratchRuleBase.counters = ruleBase.counters;
+        scratchRuleBase.exclusiveGroups = ruleBase.exclusiveGroups;
+        scratchRuleBase.exclusiveFacts = ruleBase.exclusiveFacts;
+        scratchRuleBase.matchTable = ruleBase.matchTable;
+        final BreadthFirstRuleEngine ruleEngine = new BreadthFirstRuleEngine();
+        ruleEngine.setRuleBase(scratchRuleBase);
+        final FactState factState = ruleEngine.getFactState();
+        final Counter[] counters = scratchRuleBase.counters;
+        int factMask = factCount == RuleBase.MAX_FACTS ? -1 : (1 << factCount) - 1;
+        for (final Counter counter : counters) {
+            // Threshold facts only change with their counters
+            factMask &= ~counter.factMask;
+        }
+        int random = 0x9E3779B9;
+        for (int i = 0; i < changes; ++i) {
+            // xorshift
+            random ^= random << 13;
+            random ^= random >>> 17;
+            random ^= random << 5;
+            final int factVector = random & factMask;
+            int addFactVector = factVector & ~factState.getState();
+            for (final int exclusiveGroup : scratchRuleBase.exclusiveGroups) {
+                // Add at most one fact of an exclusive group
+                final int added = addFactVector & exclusiveGroup;
+                addFactVector &= ~(added & added - 1);
+            }
+            factState.addRemoveFacts(addFactVector, factVector & factState.getState());
+            if (counters.length != 0) {
+                factState.setCounter(
+                        counters[(random >>> 8) % counters.length], (random >>> 24) & 15);
+            }
+            if ((i & 63) == 63) {
+                ruleEngine.clearState();
+            }
+        }
+        // The rule engine references the scratch rule base only weakly; using it here keeps it
+        // strongly reachable for the whole loop
+        if (ruleEngine.getRuleBase() != scratchRuleBase) {
+            throw new AssertionError("Scratch rule base lost");
+        }
+    }
+
+    @Override
+    protected boolean isEvaluating() {
+        return isEvaluating;
     }
 
     @Override
@@ -112,14 +223,74 @@ public class BreadthFirstRuleEngine extends RuleEngine {
         }
 
         isEvaluating = true;
+        baseState.firedRules = 0;
+        installPendingRuleBase();
+        final RuleBase ruleBase = getRuleBase();
+        final int startState = getFactState().getState();
+        final int startRuleMatchState = ruleMatchState;
+        final int startVersion = getRuleBaseVersion();
+        boolean evaluated = false;
         do {
             evaluationScheduled = false;
-            evaluate();
+            installPendingRuleBase();
+            if (!applyCachedTransition()) {
+                evaluate();
+                evaluated = true;
+            }
         } while (evaluationScheduled);
 
         isEvaluating = false;
 
-        handleEvaluationEnd();
+        if (evaluated && ruleBase != null && ruleBase.transitionCache != null
+                && getRuleBaseVersion() == startVersion
+                && firesOnlyFactChangeActions(ruleBase, baseState.firedRules)) {
+            ruleBase.transitionCache.put(startState, startRuleMatchState,
+                    getFactState().getState(), ruleMatchState, baseState.firedRules);
+        }
+
+        handleEvaluationEnd(baseState.firedRules);
+    }
+
+    /**
+     * Completes the evaluation from the rule base's {@link TransitionCache}, if it has the
+     * transition for the current fact state and rule match state.
+     * @return whether the transition was applied
+     */
+    private boolean applyCachedTransition() {
+        final RuleBase ruleBase = getRuleBase();
+        if (ruleBase == null || ruleBase.transitionCache == null) {
+            return false;
+        }
+        final FactState factState = getFactState();
+        final int state = factState.getState();
+        if (!ruleBase.transitionCache.get(state, ruleMatchState, transition)) {
+            return false;
+        }
+        if (Tracing.enabled && Log.LOG.isLoggable(Level.FINE)) {
+            Log.LOG.fine("Cached transition: " + formatState(state));
+        }
+        setRuleMatchState(transition[1]);
+        baseState.firedRules |= transition[2];
+        factState.addRemoveFacts(transition[0] & ~state, state & ~transition[0]);
+        // The cached state is a fixpoint
+        evaluationScheduled = false;
+        return true;
+    }
+
+    /**
+     * @param ruleBase   the rule base
+     * @param firedRules the bit vector of fired rules
+     * @return whether all fired rules have a {@link FactChangeAction}
+     */
+    private static boolean firesOnlyFactChangeActions(
+            final RuleBase ruleBase, final int firedRules) {
+        for (int bits = firedRules; bits != 0; bits &= bits - 1) {
+            final Rule rule = ruleBase.rules.get(Integer.numberOfTrailingZeros(bits));
+            if (!(rule.ruleAction instanceof FactChangeAction)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -131,34 +302,79 @@ public class BreadthFirstRuleEngine extends RuleEngine {
         if (ruleBase == null) {
             return;
         }
-        baseState.state = getFactState().getState();
-        if (LOG.isLoggable(Level.FINE)) {
-            LOG.fine("Evaluating: " + formatState(baseState.state));
+        final int state = getFactState().getState();
+        baseState.state = state;
+        if (Tracing.enabled && Log.LOG.isLoggable(Level.FINE)) {
+            Log.LOG.fine("Evaluating: " + formatState(state));
         }
-        int evaluatedMask = 1;
         final int ruleCount = ruleBase.rules.size();
-        for (int i = 0; i < ruleCount; ++i) {
-            final Rule rule = ruleBase.rules.get(i);
-            if (rule.matchType != Rule.MATCH_ONCE
-                    || (ruleMatchState & evaluatedMask) == 0) {
-                if (rule.eval(baseState.state)) {
-                    if (rule.matchType == Rule.MATCH_ALWAYS
-                            || (ruleMatchState & evaluatedMask) == 0) {
-                        if (LOG.isLoggable(Level.FINE)) {
-                            LOG.fine("Rule fired: " + rule);
-                        }
-                        ruleMatchState |= evaluatedMask;
-                        rule.ruleAction.fire(baseState, getFactState());
-                    }
-                } else if (rule.matchType == Rule.MATCH_RESET
-                        && (ruleMatchState & evaluatedMask) != 0) {
-                    if (LOG.isLoggable(Level.FINE)) {
-                        LOG.fine("Rule reset: " + rule);
+        int ruleMask = -1;
+        if (evaluatedRuleCount == ruleCount) {
+            // Rules whose facts are unchanged since the last pass yield the same outcome, except
+            // for MATCH_ALWAYS rules, which fire on every pass they match
+            final int[] factRules = ruleBase.getFactRules();
+            ruleMask = ~(ruleBase.onceRules | ruleBase.resetRules);
+            for (int bits = state ^ evaluatedState; bits != 0; bits &= bits - 1) {
+                ruleMask |= factRules[Integer.numberOfTrailingZeros(bits)];
+            }
+        }
+        evaluatedRuleCount = -1;
+        ruleMatchState = evaluate(ruleBase, ruleMask, baseState, ruleMatchState, getFactState());
+        evaluatedState = state;
+        evaluatedRuleCount = ruleCount;
+    }
+
+    /**
+     * Performs a single breadth-first evaluation pass over a rule base. Shared by all components
+     * that store fact state and rule match state in their own way.
+     * @param ruleBase         the rule base
+     * @param ruleMask         the bit vector of rules to evaluate
+     * @param oldState         the fact state to match rules against and to pass to rule actions
+     *                         as the old state. Fired rules are added to its fired rules.
+     * @param ruleMatchState   the rule match state at the start of the pass
+     * @param newState         the fact state to pass to rule actions for modification
+     * @return the rule match state at the end of the pass
+     */
+    static int evaluate(final RuleBase ruleBase, final int ruleMask,
+                        final StateSnapshot oldState, int ruleMatchState,
+                        final WritableState newState) {
+        final int state = oldState.state;
+        final MatchTable matchTable = ruleBase.matchTable;
+        final int matches = matchTable == null ? 0 : matchTable.matches(state);
+        final int resetRules = ruleBase.resetRules;
+        final int trackedRules = ruleBase.onceRules | resetRules;
+        // MATCH_ONCE rules drop out permanently once fired
+        int activeRules = ruleMask & ruleBase.allRules & ~(ruleMatchState & ruleBase.onceRules);
+        final int[] moduleGates = ruleBase.moduleGates;
+        for (int i = 0; i < moduleGates.length; ++i) {
+            if ((state & moduleGates[i]) != moduleGates[i]) {
+                // Closed module: its rules do not match
+                final int closedRules = ruleBase.moduleRules[i] & ruleMask;
+                activeRules &= ~closedRules;
+                ruleMatchState &= ~(closedRules & resetRules);
+            }
+        }
+        for (int bits = activeRules; bits != 0; bits &= bits - 1) {
+            final int evaluatedMask = bits & -bits;
+            final Rule rule = ruleBase.rules.get(Integer.numberOfTrailingZeros(bits));
+            if (matchTable == null ? rule.eval(state) : (matches & evaluatedMask) != 0) {
+                // MATCH_ALWAYS rules fire regardless of their match state
+                if ((trackedRules & evaluatedMask) == 0
+                        || (ruleMatchState & evaluatedMask) == 0) {
+                    if (Tracing.enabled && Log.LOG.isLoggable(Level.FINE)) {
+                        Log.LOG.fine("Rule fired: " + rule);
                     }
-                    ruleMatchState ^= evaluatedMask;
+                    ruleMatchState |= evaluatedMask;
+                    oldState.firedRules |= evaluatedMask;
+                    rule.ruleAction.fire(oldState, newState);
                 }
+            } else if ((resetRules & ruleMatchState & evaluatedMask) != 0) {
+                if (Tracing.enabled && Log.LOG.isLoggable(Level.FINE)) {
+                    Log.LOG.fine("Rule reset: " + rule);
+                }
+                ruleMatchState ^= evaluatedMask;
             }
-            evaluatedMask <<= 1;
         }
+        return ruleMatchState;
     }
 }
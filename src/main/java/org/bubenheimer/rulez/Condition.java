@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * <p>An immutable boolean expression over facts with arbitrary nesting of AND, OR, and NOT.
+ * Add it to a rule's left-hand side via {@link Rule#addCondition(Condition)}.</p>
+ *
+ * <p>Expressions are compiled to disjunctive normal form: a disjunction of terms, each a pair of
+ * a positive and a negative fact bit vector. Duplicate, contradictory, and subsumed terms are
+ * eliminated.</p>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class Condition {
+    /**
+     * Maximum number of terms of a compiled condition.
+     */
+    public static final int MAX_TERMS = 256;
+
+    private static final int FACT = 0;
+    private static final int NOT = 1;
+    private static final int AND = 2;
+    private static final int OR = 3;
+
+    /**
+     * The expression type
+     */
+    private final int type;
+
+    /**
+     * The fact bit vector for a {@link #FACT} expression
+     */
+    private final int factVector;
+
+    /**
+     * The operands for {@link #NOT}, {@link #AND}, and {@link #OR} expressions
+     */
+    private final Condition[] operands;
+
+    private Condition(final int type, final int factVector, final Condition[] operands) {
+        this.type = type;
+        this.factVector = factVector;
+        this.operands = operands;
+    }
+
+    /**
+     * @param fact the fact
+     * @return an expression that is true if the fact is true
+     */
+    public static @NotNull Condition fact(final Fact fact) {
+        return new Condition(FACT, 1 << fact.id, null);
+    }
+
+    /**
+     * @param operand the operand
+     * @return the negation of the operand
+     */
+    public static @NotNull Condition not(final Condition operand) {
+        return new Condition(NOT, 0, new Condition[] { operand });
+    }
+
+    /**
+     * @param operands the operands
+     * @return the conjunction of the operands
+     */
+    public static @NotNull Condition and(final Condition... operands) {
+        return new Condition(AND, 0, operands.clone());
+    }
+
+    /**
+     * @param operands the operands
+     * @return the disjunction of the operands
+     */
+    public static @NotNull Condition or(final Condition... operands) {
+        return new Condition(OR, 0, operands.clone());
+    }
+
+    /**
+     * @param facts the facts
+     * @return the conjunction of the facts
+     */
+    public static @NotNull Condition allOf(final Fact... facts) {
+        final Condition[] operands = new Condition[facts.length];
+        for (int i = 0; i < facts.length; ++i) {
+            operands[i] = fact(facts[i]);
+        }
+        return new Condition(AND, 0, operands);
+    }
+
+    /**
+     * @param facts the facts
+     * @return the disjunction of the facts
+     */
+    public static @NotNull Condition anyOf(final Fact... facts) {
+        final Condition[] operands = new Condition[facts.length];
+        for (int i = 0; i < facts.length; ++i) {
+            operands[i] = fact(facts[i]);
+        }
+        return new Condition(OR, 0, operands);
+    }
+
+    /**
+     * Compiles the expression to disjunctive normal form.
+     * @return the terms as consecutive pairs of positive and negative fact bit vectors.
+     * An empty array represents false; a single pair of zeros represents true.
+     */
+    int[] compile() {
+        return compile(false);
+    }
+
+    private int[] compile(final boolean negated) {
+        switch (type) {
+            case FACT:
+                return negated ? new int[] { 0, factVector } : new int[] { factVector, 0 };
+            case NOT:
+                return operands[0].compile(!negated);
+            case AND:
+            case OR:
+                // De Morgan: a negated conjunction is a disjunction of negations and vice versa
+                final boolean conjunction = type == AND ^ negated;
+                int[] terms = conjunction ? new int[] { 0, 0 } : new int[0];
+                for (final Condition operand : operands) {
+                    final int[] operandTerms = operand.compile(negated);
+                    terms = conjunction ? and(terms, operandTerms) : or(terms, operandTerms);
+                }
+                return terms;
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    /**
+     * @return the disjunction of two compiled expressions
+     */
+    private static int[] or(final int[] terms1, final int[] terms2) {
+        final int[] terms = Arrays.copyOf(terms1, terms1.length + terms2.length);
+        System.arraycopy(terms2, 0, terms, terms1.length, terms2.length);
+        return minimize(terms);
+    }
+
+    /**
+     * Combines two compiled expressions into a conjunction.
+     * @return the conjunction, with all terms pairwise distributed
+     */
+    static int[] and(final int[] terms1, final int[] terms2) {
+        final int[] terms = new int[terms1.length * terms2.length / 2];
+        int length = 0;
+        for (int i = 0; i < terms1.length; i += 2) {
+            for (int j = 0; j < terms2.length; j += 2) {
+                final int pos = terms1[i] | terms2[j];
+                final int neg = terms1[i + 1] | terms2[j + 1];
+                if ((pos & neg) == 0) {
+                    terms[length++] = pos;
+                    terms[length++] = neg;
+                }
+            }
+        }
+        return minimize(Arrays.copyOf(terms, length));
+    }
+
+    /**
+     * Eliminates duplicate terms and terms subsumed by more general terms.
+     * @return the minimized terms
+     */
+    private static int[] minimize(final int[] terms) {
+        int length = 0;
+        final int[] result = new int[terms.length];
+        for (int i = 0; i < terms.length; i += 2) {
+            final int pos = terms[i];
+            final int neg = terms[i + 1];
+            boolean subsumed = false;
+            for (int j = 0; j < terms.length; j += 2) {
+                if (j != i && (terms[j] & pos) == terms[j] && (terms[j + 1] & neg) == terms[j + 1]
+                        // Of two identical terms keep the first one
+                        && (terms[j] != pos || terms[j + 1] != neg || j < i)) {
+                    subsumed = true;
+                    break;
+                }
+            }
+            if (!subsumed) {
+                result[length++] = pos;
+                result[length++] = neg;
+            }
+        }
+        if (length > 2 * MAX_TERMS) {
+            throw new IllegalArgumentException("Condition too complex");
+        }
+        return Arrays.copyOf(result, length);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+import java.util.Arrays;
+
+/**
+ * <p>An integer-valued fact, such as a retry count. Rules do not reference counters directly,
+ * but threshold facts created via {@link RuleBase#newThreshold(Counter, int)}, which are true
+ * while the counter is at or above the threshold. Changing a counter via {@link FactState}
+ * only changes the fact state, and triggers evaluation, when it crosses a threshold.</p>
+ *
+ * <p>Counter values are stored per {@link FactState} and start at 0. Rule actions change
+ * counters via {@link WritableState#setCounter(Counter, int)} and
+ * {@link WritableState#addToCounter(Counter, int)}. {@link ParallelRuleEngine} and
+ * {@link OffHeapSessionStore} do not support rule bases with counters and reject them up front.
+ * </p>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class Counter {
+    /**
+     * The internal counter id
+     */
+    final int id;
+
+    /**
+     * Counter name
+     */
+    final String name;
+
+    /**
+     * The thresholds, in ascending order
+     */
+    private int[] thresholds = new int[0];
+
+    /**
+     * Per threshold: the fact bit of the threshold fact
+     */
+    private int[] thresholdFacts = new int[0];
+
+    /**
+     * Bit vector of the threshold facts
+     */
+    int factMask = 0;
+
+    /**
+     * Creates a new counter
+     * @param id   the internal counter id
+     * @param name the counter name
+     */
+    Counter(final int id, final String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    /**
+     * @return the counter name
+     */
+    @SuppressWarnings("unused")
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Adds a threshold.
+     * @param threshold the threshold
+     * @param fact      the threshold fact
+     */
+    void addThreshold(final int threshold, final Fact fact) {
+        int index = thresholds.length;
+        thresholds = Arrays.copyOf(thresholds, index + 1);
+        thresholdFacts = Arrays.copyOf(thresholdFacts, index + 1);
+        for (; index > 0 && thresholds[index - 1] > threshold; --index) {
+            thresholds[index] = thresholds[index - 1];
+            thresholdFacts[index] = thresholdFacts[index - 1];
+        }
+        thresholds[index] = threshold;
+        thresholdFacts[index] = 1 << fact.id;
+        factMask |= 1 << fact.id;
+    }
+
+    /**
+     * @param value the counter value
+     * @return the bit vector of threshold facts that are true for the value
+     */
+    int thresholdFacts(final int value) {
+        int factVector = 0;
+        for (int i = 0; i < thresholds.length && thresholds[i] <= value; ++i) {
+            factVector |= thresholdFacts[i];
+        }
+        return factVector;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+/**
+ * A pure rule action that only adds and removes a fixed set of facts. The outcome of an
+ * evaluation firing only pure rule actions depends on nothing but the fact state and rule match
+ * state, so it can be memoized in a {@link TransitionCache}.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class FactChangeAction implements RuleAction {
+    /**
+     * The facts to add
+     */
+    final int addFactVector;
+
+    /**
+     * The facts to remove
+     */
+    final int removeFactVector;
+
+    /**
+     * @param addFacts      the facts to add
+     * @param removeFacts   the facts to remove
+     */
+    public FactChangeAction(final FactSet addFacts, final FactSet removeFacts) {
+        this(addFacts.factVector, removeFacts.factVector);
+    }
+
+    /**
+     * @param addFactVector      the facts to add
+     * @param removeFactVector   the facts to remove
+     */
+    FactChangeAction(final int addFactVector, final int removeFactVector) {
+        this.addFactVector = addFactVector;
+        this.removeFactVector = removeFactVector;
+    }
+
+    @Override
+    public void fire(final ReadableState oldState, final WritableState newState) {
+        newState.addRemoveFacts(addFactVector, removeFactVector);
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+/**
+ * Listener to be invoked when rule evaluation ends and facts of interest have changed.
+ * Register this via {@link FactChangeRegistry#subscribe(int, FactChangeListener)}.
+ */
+@SuppressWarnings("WeakerAccess")
+public interface FactChangeListener {
+    /**
+     * Invoked when rule evaluation ends and at least one of the subscribed facts has changed.
+     * @param engine   the rule engine
+     * @param oldState the raw fact state at the end of the previous notification
+     * @param newState the raw fact state at the end of the evaluation
+     */
+    void onFactChange(final RuleEngine engine, final int oldState, final int newState);
+}
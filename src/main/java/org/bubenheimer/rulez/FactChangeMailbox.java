@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free, allocation-free multi-producer single-consumer queue of fact change
+ * commands. A command is a pair of fact bit vectors packed into a {@code long}: the facts to add
+ * in the high-order half, the facts to remove in the low-order half.
+ */
+final class FactChangeMailbox {
+    /**
+     * Index mask for the power-of-two capacity.
+     */
+    private final int mask;
+
+    /**
+     * Per-slot sequence numbers coordinating producers and the consumer.
+     */
+    private final AtomicLongArray sequences;
+
+    /**
+     * The commands. Visibility is provided by the slot sequence numbers.
+     */
+    private final long[] commands;
+
+    /**
+     * The position of the next command to enqueue.
+     */
+    private final AtomicLong enqueuePosition = new AtomicLong();
+
+    /**
+     * The position of the next command to dequeue. Only accessed by the consumer.
+     */
+    private long dequeuePosition = 0;
+
+    /**
+     * @param capacity the maximum number of queued commands. Rounded up to a power of two,
+     *                 at least 2.
+     */
+    FactChangeMailbox(final int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        final int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        mask = size - 1;
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; ++i) {
+            sequences.set(i, i);
+        }
+        commands = new long[size];
+    }
+
+    /**
+     * Packs fact bit vectors into a command.
+     * @param addFactVector      the facts to add
+     * @param removeFactVector   the facts to remove
+     * @return the command
+     */
+    static long command(final int addFactVector, final int removeFactVector) {
+        return (long) addFactVector << 32 | removeFactVector & 0xffffffffL;
+    }
+
+    /**
+     * @param command the command
+     * @return the facts to add
+     */
+    static int addFactVector(final long command) {
+        return (int) (command >>> 32);
+    }
+
+    /**
+     * @param command the command
+     * @return the facts to remove
+     */
+    static int removeFactVector(final long command) {
+        return (int) command;
+    }
+
+    /**
+     * Enqueues a command. Safe to call from any thread.
+     * @param command the command
+     * @return whether the command was enqueued; {@code false} if the mailbox is full
+     */
+    boolean offer(final long command) {
+        long position = enqueuePosition.get();
+        while (true) {
+            final int index = (int) position & mask;
+            final long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (enqueuePosition.compareAndSet(position, position + 1)) {
+                    commands[index] = command;
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = enqueuePosition.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = enqueuePosition.get();
+            }
+        }
+    }
+
+    /**
+     * @return whether there is no command to dequeue. Only to be called by the consumer.
+     */
+    boolean isEmpty() {
+        return sequences.get((int) dequeuePosition & mask) != dequeuePosition + 1;
+    }
+
+    /**
+     * Dequeues a command. Only to be called by the consumer, and only if {@link #isEmpty()}
+     * returned {@code false}.
+     * @return the command
+     */
+    long poll() {
+        final int index = (int) dequeuePosition & mask;
+        final long command = commands[index];
+        sequences.lazySet(index, dequeuePosition + mask + 1);
+        ++dequeuePosition;
+        return command;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+import java.util.Arrays;
+
+/**
+ * <p>A registry of {@link FactChangeListener}s, each subscribed to a fact bit mask. When rule
+ * evaluation ends, only the listeners whose mask intersects the changed facts are invoked.</p>
+ *
+ * <p>Listeners are indexed by fact bit, so dispatch visits only the subscribers of facts that
+ * actually changed; subscribers of unrelated facts cost nothing.</p>
+ *
+ * <p>Not thread-safe. Listeners may subscribe and unsubscribe from within a notification.
+ * Listeners subscribed from within a notification are not notified of the ongoing change.</p>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class FactChangeRegistry {
+    private static final int[] EMPTY = new int[0];
+
+    /**
+     * Marks a slot unsubscribed during a dispatch, which is not reused until the dispatch ends.
+     */
+    private static final FactChangeListener RELEASED = new FactChangeListener() {
+        @Override
+        public void onFactChange(final RuleEngine engine, final int oldState, final int newState) {
+        }
+    };
+
+    /**
+     * The associated rule engine.
+     */
+    private final RuleEngine ruleEngine;
+
+    /**
+     * The fact state as of the last notification.
+     */
+    int lastState;
+
+    /**
+     * The listeners by slot. Unused slots are {@code null}.
+     */
+    private FactChangeListener[] listeners = new FactChangeListener[4];
+
+    /**
+     * The fact bit masks of the listeners by slot.
+     */
+    private int[] masks = new int[4];
+
+    /**
+     * For each fact bit, the slots of the listeners subscribed to it. Arrays are replaced rather
+     * than modified, so an ongoing dispatch is unaffected by subscription changes.
+     */
+    private final int[][] factIndex = new int[RuleBase.MAX_FACTS][];
+
+    /**
+     * The number of ongoing, possibly nested, dispatches.
+     */
+    private int dispatchDepth = 0;
+
+    /**
+     * Whether any slots are marked {@link #RELEASED}.
+     */
+    private boolean slotsReleased = false;
+
+    /**
+     * @param ruleEngine the associated rule engine
+     */
+    FactChangeRegistry(final RuleEngine ruleEngine) {
+        this.ruleEngine = ruleEngine;
+        lastState = ruleEngine.getFactState().getState();
+        Arrays.fill(factIndex, EMPTY);
+    }
+
+    /**
+     * Subscribes a listener to changes of a set of facts.
+     * @param factVector the fact bit vector of the facts of interest
+     * @param listener   the listener
+     */
+    public void subscribe(final int factVector, final FactChangeListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener");
+        }
+        int slot = 0;
+        while (slot < listeners.length && listeners[slot] != null) {
+            ++slot;
+        }
+        if (slot == listeners.length) {
+            listeners = Arrays.copyOf(listeners, slot * 2);
+            masks = Arrays.copyOf(masks, slot * 2);
+        }
+        listeners[slot] = listener;
+        masks[slot] = factVector;
+        for (int bits = factVector; bits != 0; bits &= bits - 1) {
+            final int factId = Integer.numberOfTrailingZeros(bits);
+            final int[] slots = factIndex[factId];
+            final int[] newSlots = Arrays.copyOf(slots, slots.length + 1);
+            newSlots[slots.length] = slot;
+            factIndex[factId] = newSlots;
+        }
+    }
+
+    /**
+     * Subscribes a listener to changes of a set of facts.
+     * @param listener the listener
+     * @param facts    the facts of interest
+     */
+    public void subscribe(final FactChangeListener listener, final Fact... facts) {
+        int factVector = 0;
+        for (final Fact fact : facts) {
+            factVector |= 1 << fact.id;
+        }
+        subscribe(factVector, listener);
+    }
+
+    /**
+     * Unsubscribes a listener from all of its subscriptions.
+     * @param listener the listener
+     */
+    public void unsubscribe(final FactChangeListener listener) {
+        for (int slot = 0; slot < listeners.length; ++slot) {
+            if (listeners[slot] == listener) {
+                for (int bits = masks[slot]; bits != 0; bits &= bits - 1) {
+                    final int factId = Integer.numberOfTrailingZeros(bits);
+                    factIndex[factId] = removeSlot(factIndex[factId], slot);
+                }
+                if (dispatchDepth == 0) {
+                    listeners[slot] = null;
+                } else {
+                    // An ongoing dispatch may still visit the slot, so it must not be reused yet
+                    listeners[slot] = RELEASED;
+                    slotsReleased = true;
+                }
+                masks[slot] = 0;
+            }
+        }
+    }
+
+    /**
+     * Notifies the listeners of facts that have changed since the last notification.
+     * @param state the current fact state
+     */
+    void dispatch(final int state) {
+        final int oldState = lastState;
+        final int changed = oldState ^ state;
+        if (changed == 0) {
+            return;
+        }
+        lastState = state;
+        ++dispatchDepth;
+        try {
+            for (int bits = changed; bits != 0; bits &= bits - 1) {
+                final int factId = Integer.numberOfTrailingZeros(bits);
+                final int factMask = 1 << factId;
+                for (final int slot : factIndex[factId]) {
+                    final FactChangeListener listener = listeners[slot];
+                    // Notify only from the lowest changed fact of the listener's mask. Released
+                    // slots have an empty mask.
+                    if (listener != null
+                            && Integer.lowestOneBit(masks[slot] & changed) == factMask) {
+                        listener.onFactChange(ruleEngine, oldState, state);
+                    }
+                }
+            }
+        } finally {
+            if (--dispatchDepth == 0 && slotsReleased) {
+                slotsReleased = false;
+                for (int slot = 0; slot < listeners.length; ++slot) {
+                    if (listeners[slot] == RELEASED) {
+                        listeners[slot] = null;
+                    }
+                }
+            }
+        }
+    }
+
+    private static int[] removeSlot(final int[] slots, final int slot) {
+        for (int i = 0; i < slots.length; ++i) {
+            if (slots[i] == slot) {
+                final int[] newSlots = new int[slots.length - 1];
+                System.arraycopy(slots, 0, newSlots, 0, i);
+                System.arraycopy(slots, i + 1, newSlots, i, newSlots.length - i);
+                return newSlots;
+            }
+        }
+        return slots;
+    }
+}
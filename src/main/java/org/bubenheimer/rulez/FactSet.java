@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+/**
+ * An immutable set of facts, precomputed once via {@link RuleBase#newFactSet(Fact...)} so that
+ * rule actions can modify the fact state without allocating.
+ */
+public final class FactSet {
+    /**
+     * The fact bit vector
+     */
+    final int factVector;
+
+    /**
+     * Creates a new fact set
+     * @param factVector the fact bit vector
+     */
+    FactSet(final int factVector) {
+        this.factVector = factVector;
+    }
+
+    /**
+     * @return the fact bit vector
+     */
+    @SuppressWarnings("unused")
+    public int getFactVector() {
+        return factVector;
+    }
+}
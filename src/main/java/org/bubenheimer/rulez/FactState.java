@@ -17,6 +17,7 @@
 
 package org.bubenheimer.rulez;
 
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -24,7 +25,9 @@ import static org.bubenheimer.rulez.RuleEngine.formatState;
 
 @SuppressWarnings("WeakerAccess")
 public final class FactState implements ReadableState, WritableState {
-    private static final Logger LOG = Logger.getLogger(FactState.class.getName());
+    private static final class Log {
+        static final Logger LOG = Logger.getLogger(FactState.class.getName());
+    }
 
     /**
      * The state (bit vector).
@@ -36,6 +39,150 @@ public final class FactState implements ReadableState, WritableState {
      */
     private final RuleEngine ruleEngine;
 
+    /**
+     * The batch of fact changes. There is just a single one to avoid garbage collection issues.
+     */
+    private final Batch batch = new Batch();
+
+    /**
+     * The shared fact domain overlaid onto the state. May be null.
+     */
+    SharedFactDomain sharedFactDomain;
+
+    /**
+     * The counter values by counter ID. Counters beyond the end are 0.
+     */
+    private int[] counterValues = new int[0];
+
+    /**
+     * The population index counting the facts. May be null.
+     */
+    PopulationIndex populationIndex;
+
+    /**
+     * <p>A batch of fact changes accumulated via {@link WritableState} methods and applied to the
+     * fact state in a single operation by {@link #commit()}, with a single rule evaluation and
+     * a single pass over changed persistent facts. Closing a batch that has not been committed
+     * discards its changes.</p>
+     *
+     * <p>Later changes to a fact within a batch override earlier ones.</p>
+     */
+    public final class Batch extends AbstractWritableState implements AutoCloseable {
+        /**
+         * Whether the batch is in progress.
+         */
+        private boolean active = false;
+
+        /**
+         * The facts to add.
+         */
+        private int addFactVector;
+
+        /**
+         * The facts to remove.
+         */
+        private int removeFactVector;
+
+        /**
+         * The counter values as of the batch, or {@code null} if the batch has not changed any.
+         * Counters beyond the end are 0.
+         */
+        private int[] batchCounterValues;
+
+        private Batch() {
+        }
+
+        @Override
+        public void addRemoveFacts(final int addFactVector, final int removeFactVector) {
+            add(addFactVector);
+            remove(removeFactVector);
+        }
+
+        /**
+         * Sets a counter value as part of the batch. The counter's threshold facts follow the
+         * value on commit.
+         * @param counter the counter
+         * @param value   the counter value
+         */
+        @Override
+        public void setCounter(final Counter counter, final int value) {
+            checkActive();
+            if (batchCounterValues == null) {
+                batchCounterValues = counterValues.clone();
+            }
+            if (counter.id >= batchCounterValues.length) {
+                batchCounterValues = Arrays.copyOf(batchCounterValues, counter.id + 1);
+            }
+            batchCounterValues[counter.id] = value;
+            final int thresholdFacts = counter.thresholdFacts(value);
+            add(thresholdFacts);
+            remove(counter.factMask & ~thresholdFacts);
+        }
+
+        /**
+         * Adds to a counter value as part of the batch. The counter's threshold facts follow the
+         * value on commit.
+         * @param counter the counter
+         * @param delta   the value to add
+         */
+        @Override
+        public void addToCounter(final Counter counter, final int delta) {
+            final int[] values = batchCounterValues == null ? counterValues : batchCounterValues;
+            setCounter(counter, (counter.id < values.length ? values[counter.id] : 0) + delta);
+        }
+
+        /**
+         * Applies the accumulated fact changes to the fact state and ends the batch.
+         */
+        public void commit() {
+            checkActive();
+            active = false;
+            if (batchCounterValues != null) {
+                counterValues = batchCounterValues;
+            }
+            final int oldState = state;
+            state = (state | addFactVector)
+                    & ~(removeFactVector | exclusiveRemovals(addFactVector));
+            if (Tracing.enabled && Log.LOG.isLoggable(Level.FINE)) {
+                Log.LOG.fine("State change: " + formatState(oldState) + " + "
+                        + formatState(addFactVector) + " - " + formatState(removeFactVector)
+                        + " = " + formatState(state));
+            }
+            persistChanges(oldState);
+            stateChangeEval(oldState);
+            if (batchCounterValues != null) {
+                ruleEngine.counterValuesChanged();
+            }
+        }
+
+        /**
+         * Ends the batch, discarding its changes unless it has been committed.
+         */
+        @Override
+        public void close() {
+            active = false;
+        }
+
+        private void add(final int factVector) {
+            checkActive();
+            final int exclusiveRemovals = exclusiveRemovals(factVector);
+            addFactVector = (addFactVector | factVector) & ~exclusiveRemovals;
+            removeFactVector = (removeFactVector | exclusiveRemovals) & ~factVector;
+        }
+
+        private void remove(final int factVector) {
+            checkActive();
+            removeFactVector |= factVector;
+            addFactVector &= ~factVector;
+        }
+
+        private void checkActive() {
+            if (!active) {
+                throw new IllegalStateException("No batch in progress");
+            }
+        }
+    }
+
     /**
      * @param ruleEngine the associated rule engine
      */
@@ -45,21 +192,25 @@ public final class FactState implements ReadableState, WritableState {
 
     @Override
     public boolean isValid(final Fact fact) {
-        return (state & (1 << fact.id)) != 0;
+        return (getState() & (1 << fact.id)) != 0;
     }
 
     /**
-     * @return the raw state bit vector (indicating what's true and what's false)
+     * @return the raw state bit vector (indicating what's true and what's false), including
+     * shared facts from a {@link SharedFactDomain}
      */
     public int getState() {
-        return state;
+        final SharedFactDomain domain = sharedFactDomain;
+        return domain == null ? state : state & ~domain.factMask | domain.state & domain.factMask;
     }
 
     /**
      * @param state the raw state bit vector (indicating what's true and what's false)
      */
     public void setState(final int state) {
+        final int oldState = this.state;
         this.state = state;
+        countChanges(oldState);
     }
 
     /**
@@ -67,7 +218,120 @@ public final class FactState implements ReadableState, WritableState {
      */
     @SuppressWarnings("WeakerAccess")
     public void clear() {
+        final int oldState = state;
         state = 0;
+        Arrays.fill(counterValues, 0);
+        countChanges(oldState);
+    }
+
+    /**
+     * @param counter the counter
+     * @return the counter value
+     */
+    @SuppressWarnings("unused")
+    public int getCounter(final Counter counter) {
+        return counter.id < counterValues.length ? counterValues[counter.id] : 0;
+    }
+
+    /**
+     * Sets a counter value. Updates the counter's threshold facts and evaluates the rule base
+     * only if a threshold is crossed. A {@link FactStateReplicator} records the value at the end
+     * of the evaluation, or right away if there is no evaluation.
+     * @param counter the counter
+     * @param value   the counter value
+     */
+    @Override
+    public void setCounter(final Counter counter, final int value) {
+        if (counter.id >= counterValues.length) {
+            counterValues = Arrays.copyOf(counterValues, counter.id + 1);
+        }
+        counterValues[counter.id] = value;
+        final int thresholdFacts = counter.thresholdFacts(value);
+        final int currentFacts = state & counter.factMask;
+        if (thresholdFacts != currentFacts) {
+            addRemoveFacts(thresholdFacts & ~currentFacts, currentFacts & ~thresholdFacts);
+        } else {
+            ruleEngine.counterValuesChanged();
+        }
+    }
+
+    /**
+     * @return the counter values by counter ID, not to be modified. Counters beyond the end are 0.
+     */
+    int[] getCounterValues() {
+        return counterValues;
+    }
+
+    /**
+     * Sets all counter values without updating threshold facts, e.g. to restore a replicated
+     * state whose fact state already reflects the values.
+     * @param values the counter values by counter ID. Counters beyond the end are 0.
+     */
+    void restoreCounterValues(final int[] values) {
+        counterValues = values.clone();
+    }
+
+    /**
+     * Maps the counter values from one rule base to another by counter name, dropping counters
+     * unknown to the new rule base, and recomputes the threshold facts of the new rule base.
+     * @param oldRuleBase the rule base of the counter values. May be {@code null}.
+     * @param newRuleBase the rule base to map to
+     * @param state       the fact state, already mapped to the new rule base
+     * @return the fact state with recomputed threshold facts
+     */
+    int migrateCounters(final RuleBase oldRuleBase, final RuleBase newRuleBase, int state) {
+        final Counter[] newCounters = newRuleBase.counters;
+        final int[] newCounterValues = new int[newCounters.length];
+        for (final Counter newCounter : newCounters) {
+            if (oldRuleBase != null) {
+                for (final Counter oldCounter : oldRuleBase.counters) {
+                    if (oldCounter.name.equals(newCounter.name)) {
+                        newCounterValues[newCounter.id] = getCounter(oldCounter);
+                        break;
+                    }
+                }
+            }
+            state = state & ~newCounter.factMask
+                    | newCounter.thresholdFacts(newCounterValues[newCounter.id]);
+        }
+        counterValues = newCounterValues;
+        return state;
+    }
+
+    /**
+     * Adds to a counter value. Updates the counter's threshold facts and evaluates the rule base
+     * only if a threshold is crossed.
+     * @param counter the counter
+     * @param delta   the value to add
+     */
+    @Override
+    public void addToCounter(final Counter counter, final int delta) {
+        setCounter(counter, getCounter(counter) + delta);
+    }
+
+    /**
+     * Starts a batch of fact changes to be applied in a single operation. Use with
+     * try-with-resources:
+     * <pre>
+     * try (FactState.Batch batch = factState.beginBatch()) {
+     *     batch.addFact(fact1);
+     *     batch.removeFact(fact2);
+     *     batch.commit();
+     * }
+     * </pre>
+     * Only one batch may be in progress at a time.
+     * @return the batch
+     */
+    @SuppressWarnings("unused")
+    public Batch beginBatch() {
+        if (batch.active) {
+            throw new IllegalStateException("Batch already in progress");
+        }
+        batch.active = true;
+        batch.batchCounterValues = null;
+        batch.addFactVector = 0;
+        batch.removeFactVector = 0;
+        return batch;
     }
 
     @Override
@@ -94,11 +358,14 @@ public final class FactState implements ReadableState, WritableState {
      */
     private void addFactsInternal(final int factVector) {
         final int oldState = state;
-        state |= factVector;
-        if (LOG.isLoggable(Level.FINE)) {
-            LOG.fine("State change: " + formatState(oldState) + " + " + formatState(factVector)
+        final int exclusiveRemovals = exclusiveRemovals(factVector);
+        state = (state | factVector) & ~exclusiveRemovals;
+        if (Tracing.enabled && Log.LOG.isLoggable(Level.FINE)) {
+            Log.LOG.fine("State change: " + formatState(oldState) + " + " + formatState(factVector)
                     + " = " + formatState(state));
         }
+        // checkFactChange() has persisted the passed facts; persist the facts removed in turn
+        persistFacts(exclusiveRemovals & (oldState ^ state));
         stateChangeEval(oldState);
     }
 
@@ -127,8 +394,8 @@ public final class FactState implements ReadableState, WritableState {
     private void removeFactsInternal(final int factVector) {
         final int oldState = state;
         state &= ~factVector;
-        if (LOG.isLoggable(Level.FINE)) {
-            LOG.fine("State change: " + formatState(oldState) + " - " + formatState(factVector)
+        if (Tracing.enabled && Log.LOG.isLoggable(Level.FINE)) {
+            Log.LOG.fine("State change: " + formatState(oldState) + " - " + formatState(factVector)
                     + " = " + formatState(state));
         }
         stateChangeEval(oldState);
@@ -160,6 +427,58 @@ public final class FactState implements ReadableState, WritableState {
         addRemoveFactsInternal(addFactVector, removeFactVector);
     }
 
+    @Override
+    public void addFacts(final FactSet facts) {
+        addFacts(facts.factVector);
+    }
+
+    @Override
+    public void removeFacts(final FactSet facts) {
+        removeFacts(facts.factVector);
+    }
+
+    @Override
+    public void addRemoveFacts(final FactSet addFacts, final FactSet removeFacts) {
+        addRemoveFacts(addFacts.factVector, removeFacts.factVector);
+    }
+
+    @Override
+    public void addFacts(final int factVector) {
+        final int oldState = state;
+        state = (state | factVector) & ~exclusiveRemovals(factVector);
+        if (Tracing.enabled && Log.LOG.isLoggable(Level.FINE)) {
+            Log.LOG.fine("State change: " + formatState(oldState) + " + " + formatState(factVector)
+                    + " = " + formatState(state));
+        }
+        persistChanges(oldState);
+        stateChangeEval(oldState);
+    }
+
+    @Override
+    public void removeFacts(final int factVector) {
+        final int oldState = state;
+        state &= ~factVector;
+        if (Tracing.enabled && Log.LOG.isLoggable(Level.FINE)) {
+            Log.LOG.fine("State change: " + formatState(oldState) + " - " + formatState(factVector)
+                    + " = " + formatState(state));
+        }
+        persistChanges(oldState);
+        stateChangeEval(oldState);
+    }
+
+    @Override
+    public void addRemoveFacts(final int addFactVector, final int removeFactVector) {
+        final int oldState = state;
+        state = (state | addFactVector) & ~(removeFactVector | exclusiveRemovals(addFactVector));
+        if (Tracing.enabled && Log.LOG.isLoggable(Level.FINE)) {
+            Log.LOG.fine("State change: " + formatState(oldState)
+                    + " + " + formatState(addFactVector) + " - " + formatState(removeFactVector)
+                    + " = " + formatState(state));
+        }
+        persistChanges(oldState);
+        stateChangeEval(oldState);
+    }
+
     /**
      * Adds facts to the state and removes facts from the state via two fact bit vectors.
      * @param addFactVector      the facts to add
@@ -167,26 +486,104 @@ public final class FactState implements ReadableState, WritableState {
      */
     private void addRemoveFactsInternal(final int addFactVector, final int removeFactVector) {
         final int oldState = state;
-        state = (state | addFactVector) & ~removeFactVector;
-        if (LOG.isLoggable(Level.FINE)) {
-            LOG.fine("State change: " + formatState(oldState) + " + " + formatState(addFactVector)
-                    + " - " + formatState(removeFactVector) + " = " + formatState(state));
+        final int exclusiveRemovals = exclusiveRemovals(addFactVector);
+        state = (state | addFactVector) & ~(removeFactVector | exclusiveRemovals);
+        if (Tracing.enabled && Log.LOG.isLoggable(Level.FINE)) {
+            Log.LOG.fine("State change: " + formatState(oldState)
+                    + " + " + formatState(addFactVector) + " - " + formatState(removeFactVector)
+                    + " = " + formatState(state));
         }
+        // checkFactChange() has persisted the passed facts; persist the facts removed in turn
+        persistFacts(exclusiveRemovals & ~removeFactVector & (oldState ^ state));
         stateChangeEval(oldState);
     }
 
+    /**
+     * Determines the facts to remove to keep exclusive fact groups one-hot when adding facts.
+     * @param addFactVector the facts to add
+     * @return the other members of the exclusive groups of the added facts
+     * @throws IllegalArgumentException if more than one fact of an exclusive group is added
+     */
+    private int exclusiveRemovals(final int addFactVector) {
+        final RuleBase ruleBase = ruleEngine.getRuleBase();
+        return ruleBase == null ? 0 : ruleBase.exclusiveRemovals(addFactVector);
+    }
+
     /**
      * Schedules an evaluation if the current state is different from the passed previous one.
      * @param oldState the previous state
      */
     private void stateChangeEval(final int oldState) {
-        if (oldState != state) {
+        if (((oldState ^ state) & ~sharedFactMask()) != 0) {
+            countChanges(oldState);
             ruleEngine.scheduleEvaluation();
         }
     }
 
+    /**
+     * Updates the population index, if any, with the changes from a previous state.
+     * @param oldState the previous state
+     */
+    private void countChanges(final int oldState) {
+        if (populationIndex != null) {
+            final int localFacts = ~sharedFactMask();
+            populationIndex.factsChanged(oldState & localFacts, state & localFacts);
+        }
+    }
+
+    /**
+     * @return the state without shared facts
+     */
+    int getLocalState() {
+        return state & ~sharedFactMask();
+    }
+
+    /**
+     * Schedules an evaluation after a change of shared facts.
+     */
+    void sharedStateChanged() {
+        ruleEngine.scheduleEvaluation();
+    }
+
+    /**
+     * @return the bit vector of shared facts, which are not changed locally
+     */
+    int sharedFactMask() {
+        final SharedFactDomain domain = sharedFactDomain;
+        return domain == null ? 0 : domain.factMask;
+    }
+
+    /**
+     * Writes the persistent facts that have changed from a previous state to the
+     * persistence store.
+     * @param oldState the previous state
+     */
+    private void persistChanges(final int oldState) {
+        persistFacts(oldState ^ state);
+    }
+
+    /**
+     * Writes the current state of persistent facts to the persistence store.
+     * @param factVector the facts to write, if persistent
+     */
+    private void persistFacts(final int factVector) {
+        if (factVector == 0) {
+            return;
+        }
+        final RuleBase ruleBase = ruleEngine.getRuleBase();
+        if (ruleBase == null || ruleBase.persistenceStore == null) {
+            return;
+        }
+        final int persisted = factVector & ruleBase.persistentFacts & ~sharedFactMask();
+        for (int bits = persisted; bits != 0; bits &= bits - 1) {
+            final Fact fact = ruleBase.facts[Integer.numberOfTrailingZeros(bits)];
+            ruleBase.persistenceStore.set(fact.id, fact.name, (state & (1 << fact.id)) != 0);
+        }
+    }
+
     private void checkFactChange(final Fact fact, final int factMask, final boolean isSet) {
-        if (fact.persistence == Fact.PERSISTENCE_DISK) {
+        // Shared facts are not persisted, like in persistChanges()
+        if (fact.persistence == Fact.PERSISTENCE_DISK && (factMask & sharedFactMask()) == 0) {
             final RuleBase ruleBase = ruleEngine.getRuleBase();
             assert ruleBase != null;
             final PersistenceStore persistenceStore = ruleBase.persistenceStore;
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+import java.util.Arrays;
+
+/**
+ * <p>The receiving end of a {@link FactStateReplicator}: applies replication frames to a mirror of
+ * the replicated sessions' fact state, rule match state, and counter values, and restores rule
+ * engines from it after failover.</p>
+ *
+ * <p>The replica is synchronized after receiving a snapshot frame. A gap in the sequence of delta
+ * frames makes it unsynchronized; it ignores delta frames until the next snapshot frame.</p>
+ *
+ * <p>Thread-safe.</p>
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class FactStateReplica {
+    /**
+     * Whether each session is known, by session ID.
+     */
+    private boolean[] known = new boolean[16];
+
+    /**
+     * The fact states by session ID.
+     */
+    private int[] states = new int[16];
+
+    /**
+     * The rule match states by session ID.
+     */
+    private int[] ruleMatchStates = new int[16];
+
+    /**
+     * The counter values by session ID. Counters beyond the end are 0.
+     */
+    private int[][] counterValues = new int[16][];
+
+    /**
+     * The expected sequence number of the next frame.
+     */
+    private int sequence;
+
+    /**
+     * Whether a snapshot frame has been received with no delta frames missed since.
+     */
+    private boolean synchronizedState = false;
+
+    /**
+     * The offset of the next byte to decode.
+     */
+    private int position;
+
+    /**
+     * Applies a replication frame.
+     * @param frame  the buffer holding the frame
+     * @param offset the offset of the frame
+     * @param length the length of the frame
+     */
+    public synchronized void receive(final byte[] frame, final int offset, final int length) {
+        final int end = offset + length;
+        position = offset + 1;
+        final byte type = frame[offset];
+        final int frameSequence = readVarint(frame, end);
+        if (type == FactStateReplicator.FRAME_SNAPSHOT) {
+            Arrays.fill(known, false);
+            while (position < end) {
+                final int session = readVarint(frame, end);
+                ensureCapacity(session);
+                known[session] = true;
+                states[session] = readVarint(frame, end);
+                ruleMatchStates[session] = readVarint(frame, end);
+                counterValues[session] = null;
+                readCounterValues(session, frame, end);
+            }
+            synchronizedState = true;
+        } else if (type == FactStateReplicator.FRAME_DELTA) {
+            if (frameSequence != sequence) {
+                synchronizedState = false;
+            }
+            if (!synchronizedState) {
+                return;
+            }
+            while (position < end) {
+                final int session = readVarint(frame, end);
+                ensureCapacity(session);
+                known[session] = true;
+                states[session] ^= readVarint(frame, end);
+                ruleMatchStates[session] ^= readVarint(frame, end);
+                readCounterValues(session, frame, end);
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown frame type: " + type);
+        }
+        sequence = frameSequence + 1;
+    }
+
+    /**
+     * @return whether the replica has received a snapshot and no delta frames have been missed
+     * since
+     */
+    public synchronized boolean isSynchronized() {
+        return synchronizedState;
+    }
+
+    /**
+     * @param session the session ID
+     * @return whether the session is known to the replica
+     */
+    public synchronized boolean contains(final int session) {
+        return session >= 0 && session < known.length && known[session];
+    }
+
+    /**
+     * @param session the session ID
+     * @return the replicated raw fact state bit vector of the session
+     */
+    public synchronized int getFactState(final int session) {
+        checkKnown(session);
+        return states[session];
+    }
+
+    /**
+     * @param session the session ID
+     * @return the replicated rule match state bit vector of the session
+     */
+    public synchronized int getRuleMatchState(final int session) {
+        checkKnown(session);
+        return ruleMatchStates[session];
+    }
+
+    /**
+     * @param session the session ID
+     * @param counter the counter
+     * @return the replicated counter value of the session
+     */
+    public synchronized int getCounter(final int session, final Counter counter) {
+        checkKnown(session);
+        final int[] values = counterValues[session];
+        return values != null && counter.id < values.length ? values[counter.id] : 0;
+    }
+
+    /**
+     * Restores a rule engine from the replicated state of a session, without evaluating its rules.
+     * The rule engine must have the rule base of the replicated rule engine. To be called on the
+     * rule engine's thread.
+     * @param ruleEngine the rule engine
+     * @param session    the session ID
+     */
+    public void restore(final BreadthFirstRuleEngine ruleEngine, final int session) {
+        final int state;
+        final int ruleMatchState;
+        final int[] values;
+        synchronized (this) {
+            checkKnown(session);
+            state = states[session];
+            ruleMatchState = ruleMatchStates[session];
+            values = counterValues[session] == null ? new int[0] : counterValues[session];
+        }
+        final FactState factState = ruleEngine.getFactState();
+        factState.setState(state);
+        // The replicated threshold facts already reflect the counter values
+        factState.restoreCounterValues(values);
+        ruleEngine.setRuleMatchState(ruleMatchState);
+    }
+
+    private void checkKnown(final int session) {
+        if (!contains(session)) {
+            throw new IllegalArgumentException("Unknown session: " + session);
+        }
+    }
+
+    private void ensureCapacity(final int session) {
+        if (session < 0) {
+            throw new IllegalArgumentException("Invalid session: " + session);
+        }
+        if (session >= known.length) {
+            final int length = Math.max(session + 1, known.length * 2);
+            known = Arrays.copyOf(known, length);
+            states = Arrays.copyOf(states, length);
+            ruleMatchStates = Arrays.copyOf(ruleMatchStates, length);
+            counterValues = Arrays.copyOf(counterValues, length);
+        }
+    }
+
+    /**
+     * Reads the counter values of a record, XORing them into the session's counter values.
+     * @param session the session ID
+     * @param frame   the buffer holding the frame
+     * @param end     the end of the frame
+     */
+    private void readCounterValues(final int session, final byte[] frame, final int end) {
+        final int counterCount = readVarint(frame, end);
+        for (int i = 0; i < counterCount; ++i) {
+            final int counter = readVarint(frame, end);
+            final int delta = readVarint(frame, end);
+            if (counter < 0) {
+                throw new IllegalArgumentException("Invalid counter: " + counter);
+            }
+            int[] values = counterValues[session];
+            if (values == null || counter >= values.length) {
+                values = values == null ? new int[counter + 1] : Arrays.copyOf(values, counter + 1);
+                counterValues[session] = values;
+            }
+            values[counter] ^= delta;
+        }
+    }
+
+    /**
+     * Reads an unsigned varint written by {@link FactStateReplicator#writeVarint}.
+     * @param buffer the buffer
+     * @param end    the end of the frame
+     * @return the value
+     */
+    private int readVarint(final byte[] buffer, final int end) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (position == end) {
+                break;
+            }
+            final byte b = buffer[position++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+}
@@ -0,0 +1,454 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Mirrors the fact state and rule match state of rule engines to a {@link FactStateReplica},
+ * e.g. on a standby node, so that rule engines can resume there after failover without
+ * {@link Rule#MATCH_ONCE} rules firing again.</p>
+ *
+ * <p>A registered rule engine's state is recorded at the end of each evaluation, as the XOR delta
+ * from its last recorded state. Deltas are varint-encoded, typically a few bytes each, and sent
+ * over a {@link ReplicationTransport} in batches. A full snapshot of all sessions precedes the
+ * first batch and follows every so many batches, allowing a replica to recover from lost
+ * frames. Counter changes that cross no threshold, and so cause no evaluation, are recorded
+ * right away. Other changes made without an evaluation, such as
+ * {@link RuleEngine#clearState()}, are recorded via {@link #update(RuleEngine)}.</p>
+ *
+ * <p>Frames consist of a type byte, a varint sequence number, and varint-encoded records of
+ * session ID, fact state, rule match state, and {@link Counter} values: XOR deltas in delta
+ * frames, full values in snapshot frames. Counter values are encoded as the number of counters
+ * listed, followed by pairs of counter ID and value; a record lists changed counters in delta
+ * frames and non-zero counters in snapshot frames. Facts from a {@link SharedFactDomain} are not
+ * replicated.</p>
+ *
+ * <p>Sessions are identified by non-negative IDs, which should be dense. Thread-safe; recording
+ * is serialized across rule engines. Frames are queued and sent outside of that serialization,
+ * one at a time, on the given {@link Executor}, so a slow transport does not stall evaluation.
+ * Changes still batched or queued are lost on failover; {@link #flush()} bounds the window.</p>
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class FactStateReplicator {
+    /**
+     * Frame type of a delta frame.
+     */
+    static final byte FRAME_DELTA = 0;
+
+    /**
+     * Frame type of a snapshot frame.
+     */
+    static final byte FRAME_SNAPSHOT = 1;
+
+    /**
+     * The maximum length of a frame header.
+     */
+    private static final int MAX_HEADER_BYTES = 1 + 5;
+
+    /**
+     * The maximum length of a record without counter values.
+     */
+    private static final int MAX_RECORD_BYTES = 4 * 5;
+
+    /**
+     * The maximum length of a counter value in a record.
+     */
+    private static final int MAX_COUNTER_BYTES = 2 * 5;
+
+    private static final int[] NO_COUNTER_VALUES = new int[0];
+
+    private final ReplicationTransport transport;
+
+    /**
+     * The executor to send frames on.
+     */
+    private final Executor executor;
+
+    /**
+     * The frames waiting to be sent.
+     */
+    private final ConcurrentLinkedQueue<byte[]> frames = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Work-in-progress counter serializing sends.
+     */
+    private final AtomicInteger wip = new AtomicInteger();
+
+    /**
+     * Sends queued frames.
+     */
+    private final Runnable sendTask = new Runnable() {
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                byte[] frame;
+                while ((frame = frames.poll()) != null) {
+                    try {
+                        transport.send(frame, frame.length);
+                    } catch (final RuntimeException e) {
+                        // Drop the frame and send the remaining ones from a new task, which
+                        // takes over the pending work, then report the failure to the executor
+                        executor.execute(this);
+                        throw e;
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    };
+
+    /**
+     * The number of delta frames between snapshot frames.
+     */
+    private final int snapshotInterval;
+
+    /**
+     * The records of the current batch, following space for the frame header.
+     */
+    private byte[] batch;
+
+    /**
+     * The length of the current batch, including space for the frame header.
+     */
+    private int batchLength = MAX_HEADER_BYTES;
+
+    /**
+     * The registered rule engines by session ID.
+     */
+    private RuleEngine[] ruleEngines = new RuleEngine[16];
+
+    /**
+     * The last recorded fact states by session ID.
+     */
+    private int[] states = new int[16];
+
+    /**
+     * The last recorded rule match states by session ID.
+     */
+    private int[] ruleMatchStates = new int[16];
+
+    /**
+     * The last recorded counter values by session ID. Counters beyond the end are 0.
+     */
+    private int[][] counterValues = new int[16][];
+
+    /**
+     * The sequence number of the next frame.
+     */
+    private int sequence = 0;
+
+    /**
+     * The number of delta frames sent since the last snapshot frame, or {@code -1} if no snapshot
+     * frame has been sent yet.
+     */
+    private int deltaFrames = -1;
+
+    /**
+     * Creates a replicator batching up to 1 KiB of records and sending a snapshot every 64 delta
+     * frames. Frames are sent by the recording thread, outside of the serialization of recording.
+     * @param transport the transport to send frames over
+     */
+    public FactStateReplicator(final ReplicationTransport transport) {
+        this(transport, 1024, 64);
+    }
+
+    /**
+     * Creates a replicator sending frames on the recording thread, outside of the serialization
+     * of recording.
+     * @param transport        the transport to send frames over
+     * @param batchBytes       the maximum length of a delta frame
+     * @param snapshotInterval the number of delta frames between snapshot frames
+     */
+    public FactStateReplicator(final ReplicationTransport transport, final int batchBytes,
+                               final int snapshotInterval) {
+        this(transport, batchBytes, snapshotInterval, new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    /**
+     * @param transport        the transport to send frames over
+     * @param batchBytes       the maximum length of a delta frame
+     * @param snapshotInterval the number of delta frames between snapshot frames
+     * @param executor         the executor to send frames on
+     */
+    public FactStateReplicator(final ReplicationTransport transport, final int batchBytes,
+                               final int snapshotInterval, final Executor executor) {
+        if (batchBytes < MAX_HEADER_BYTES + MAX_RECORD_BYTES || snapshotInterval < 1) {
+            throw new IllegalArgumentException("batchBytes: " + batchBytes
+                    + ", snapshotInterval: " + snapshotInterval);
+        }
+        this.transport = transport;
+        this.executor = executor;
+        this.snapshotInterval = snapshotInterval;
+        batch = new byte[batchBytes];
+    }
+
+    /**
+     * Registers a rule engine under a session ID and records its current state. To be called on
+     * the rule engine's thread.
+     * @param ruleEngine the rule engine
+     * @param session    the session ID, unique among registered rule engines
+     */
+    public void register(final RuleEngine ruleEngine, final int session) {
+        synchronized (this) {
+            registerLocked(ruleEngine, session);
+        }
+        sendFrames();
+    }
+
+    private void registerLocked(final RuleEngine ruleEngine, final int session) {
+        if (session < 0) {
+            throw new IllegalArgumentException("Invalid session: " + session);
+        }
+        if (ruleEngine.replicator != null) {
+            throw new IllegalStateException("Rule engine already registered with a replicator");
+        }
+        if (session >= ruleEngines.length) {
+            final int length = Math.max(session + 1, ruleEngines.length * 2);
+            ruleEngines = Arrays.copyOf(ruleEngines, length);
+            states = Arrays.copyOf(states, length);
+            ruleMatchStates = Arrays.copyOf(ruleMatchStates, length);
+            counterValues = Arrays.copyOf(counterValues, length);
+        }
+        if (ruleEngines[session] != null) {
+            throw new IllegalArgumentException("Session already registered: " + session);
+        }
+        ruleEngines[session] = ruleEngine;
+        ruleEngine.replicator = this;
+        ruleEngine.replicationSession = session;
+        states[session] = 0;
+        ruleMatchStates[session] = 0;
+        counterValues[session] = NO_COUNTER_VALUES;
+        final FactState factState = ruleEngine.getFactState();
+        recordLocked(session, factState.getLocalState(), ruleEngine.getRuleMatchState(),
+                factState.getCounterValues());
+    }
+
+    /**
+     * Unregisters a rule engine. Its session disappears from the replica with the next snapshot.
+     * To be called on the rule engine's thread.
+     * @param ruleEngine the rule engine
+     */
+    public void unregister(final RuleEngine ruleEngine) {
+        synchronized (this) {
+            if (ruleEngine.replicator != this) {
+                return;
+            }
+            // Clears the session on the replica for a later registration under the same ID
+            recordLocked(ruleEngine.replicationSession, 0, 0, NO_COUNTER_VALUES);
+            ruleEngines[ruleEngine.replicationSession] = null;
+            ruleEngine.replicator = null;
+        }
+        sendFrames();
+    }
+
+    /**
+     * Records the current state of a registered rule engine, for changes made without an
+     * evaluation. To be called on the rule engine's thread.
+     * @param ruleEngine the rule engine
+     */
+    public void update(final RuleEngine ruleEngine) {
+        if (ruleEngine.replicator != this) {
+            throw new IllegalArgumentException("Rule engine not registered");
+        }
+        final FactState factState = ruleEngine.getFactState();
+        record(ruleEngine.replicationSession, factState.getLocalState(),
+                ruleEngine.getRuleMatchState(), factState.getCounterValues());
+    }
+
+    /**
+     * Sends the current batch of deltas, if any.
+     */
+    public void flush() {
+        synchronized (this) {
+            flushLocked();
+        }
+        sendFrames();
+    }
+
+    private void flushLocked() {
+        if (batchLength == MAX_HEADER_BYTES) {
+            return;
+        }
+        if (deltaFrames < 0) {
+            // A replica ignores delta frames until it has received a snapshot frame
+            snapshotLocked();
+            return;
+        }
+        // Right-align the header with the records
+        final int start = MAX_HEADER_BYTES - 1 - varintLength(sequence);
+        batch[start] = FRAME_DELTA;
+        writeVarint(batch, start + 1, sequence++);
+        frames.add(Arrays.copyOfRange(batch, start, batchLength));
+        batchLength = MAX_HEADER_BYTES;
+        if (++deltaFrames >= snapshotInterval) {
+            snapshotLocked();
+        }
+    }
+
+    /**
+     * Sends a snapshot of all sessions. The snapshot includes the current batch of deltas, if any,
+     * which is discarded.
+     */
+    public void snapshot() {
+        synchronized (this) {
+            snapshotLocked();
+        }
+        sendFrames();
+    }
+
+    private void snapshotLocked() {
+        batchLength = MAX_HEADER_BYTES;
+        int capacity = MAX_HEADER_BYTES;
+        for (int session = 0; session < ruleEngines.length; ++session) {
+            if (ruleEngines[session] != null) {
+                capacity += MAX_RECORD_BYTES
+                        + counterValues[session].length * MAX_COUNTER_BYTES;
+            }
+        }
+        final byte[] snapshot = new byte[capacity];
+        snapshot[0] = FRAME_SNAPSHOT;
+        int length = writeVarint(snapshot, 1, sequence++);
+        for (int session = 0; session < ruleEngines.length; ++session) {
+            if (ruleEngines[session] != null) {
+                length = writeVarint(snapshot, length, session);
+                length = writeVarint(snapshot, length, states[session]);
+                length = writeVarint(snapshot, length, ruleMatchStates[session]);
+                final int[] values = counterValues[session];
+                int counterCount = 0;
+                for (final int value : values) {
+                    if (value != 0) {
+                        ++counterCount;
+                    }
+                }
+                length = writeVarint(snapshot, length, counterCount);
+                for (int counter = 0; counter < values.length; ++counter) {
+                    if (values[counter] != 0) {
+                        length = writeVarint(snapshot, length, counter);
+                        length = writeVarint(snapshot, length, values[counter]);
+                    }
+                }
+            }
+        }
+        frames.add(Arrays.copyOf(snapshot, length));
+        deltaFrames = 0;
+    }
+
+    /**
+     * Records the state of a session as a delta, if changed.
+     * @param session        the session ID
+     * @param state          the fact state
+     * @param ruleMatchState the rule match state
+     * @param values         the counter values by counter ID; counters beyond the end are 0
+     */
+    void record(final int session, final int state, final int ruleMatchState,
+                final int[] values) {
+        synchronized (this) {
+            recordLocked(session, state, ruleMatchState, values);
+        }
+        sendFrames();
+    }
+
+    private void recordLocked(final int session, final int state, final int ruleMatchState,
+                              final int[] values) {
+        final int stateDelta = state ^ states[session];
+        final int ruleMatchStateDelta = ruleMatchState ^ ruleMatchStates[session];
+        final int[] recordedValues = counterValues[session];
+        final int counterCount = Math.max(values.length, recordedValues.length);
+        int changedCounters = 0;
+        for (int counter = 0; counter < counterCount; ++counter) {
+            if (counterValue(values, counter) != counterValue(recordedValues, counter)) {
+                ++changedCounters;
+            }
+        }
+        if (stateDelta == 0 && ruleMatchStateDelta == 0 && changedCounters == 0) {
+            return;
+        }
+        final int recordBytes = MAX_RECORD_BYTES + changedCounters * MAX_COUNTER_BYTES;
+        if (batchLength + recordBytes > batch.length) {
+            flushLocked();
+            if (batchLength + recordBytes > batch.length) {
+                batch = new byte[batchLength + recordBytes];
+            }
+        }
+        states[session] = state;
+        ruleMatchStates[session] = ruleMatchState;
+        batchLength = writeVarint(batch, batchLength, session);
+        batchLength = writeVarint(batch, batchLength, stateDelta);
+        batchLength = writeVarint(batch, batchLength, ruleMatchStateDelta);
+        batchLength = writeVarint(batch, batchLength, changedCounters);
+        if (changedCounters != 0) {
+            for (int counter = 0; counter < counterCount; ++counter) {
+                final int delta =
+                        counterValue(values, counter) ^ counterValue(recordedValues, counter);
+                if (delta != 0) {
+                    batchLength = writeVarint(batch, batchLength, counter);
+                    batchLength = writeVarint(batch, batchLength, delta);
+                }
+            }
+            counterValues[session] = values.length == 0 ? NO_COUNTER_VALUES : values.clone();
+        }
+    }
+
+    private static int counterValue(final int[] values, final int counter) {
+        return counter < values.length ? values[counter] : 0;
+    }
+
+    /**
+     * Sends the queued frames, unless another thread is already sending.
+     */
+    private void sendFrames() {
+        if (!frames.isEmpty() && wip.getAndIncrement() == 0) {
+            executor.execute(sendTask);
+        }
+    }
+
+    /**
+     * Writes an unsigned varint: 7 bits per byte, least significant first, with the high bit set
+     * on all but the last byte.
+     * @param buffer the buffer
+     * @param offset the offset to write at
+     * @param value  the value, as unsigned
+     * @return the offset after the varint
+     */
+    static int writeVarint(final byte[] buffer, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[offset++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * @param value the value, as unsigned
+     * @return the number of bytes of the value's varint encoding
+     */
+    private static int varintLength(final int value) {
+        return (31 - Integer.numberOfLeadingZeros(value | 1)) / 7 + 1;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+/**
+ * A {@link ReplicationTransport} delivering frames synchronously to a {@link FactStateReplica} in
+ * the same process, e.g. for testing or for a standby within the same JVM.
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class LoopbackTransport implements ReplicationTransport {
+    private final FactStateReplica replica;
+
+    /**
+     * The number of bytes sent.
+     */
+    private volatile long bytesSent = 0L;
+
+    /**
+     * @param replica the replica to deliver frames to
+     */
+    public LoopbackTransport(final FactStateReplica replica) {
+        this.replica = replica;
+    }
+
+    @Override
+    public void send(final byte[] frame, final int length) {
+        bytesSent += length;
+        replica.receive(frame, 0, length);
+    }
+
+    /**
+     * @return the number of bytes sent
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+/**
+ * A precomputed truth table mapping the fact state, projected onto the facts referenced by
+ * a rule base's left-hand sides, to the bit vector of rules whose left-hand side matches.
+ */
+final class MatchTable {
+    /**
+     * Maximum number of referenced facts for which a table is built.
+     */
+    static final int MAX_FACTS = 16;
+
+    /**
+     * For each byte of the fact state, the projected bits for each byte value.
+     */
+    private final int[][] projection = new int[4][256];
+
+    /**
+     * The rule match bit vectors by projected fact state.
+     */
+    private final int[] matches;
+
+    /**
+     * @param rules           the rules
+     * @param referencedFacts the bit vector of facts referenced by the rules' left-hand sides.
+     *                        No more than {@link #MAX_FACTS} bits.
+     */
+    MatchTable(final Rule[] rules, final int referencedFacts) {
+        for (int i = 0; i < 4; ++i) {
+            for (int value = 0; value < 256; ++value) {
+                projection[i][value] = extract(value << 8 * i, referencedFacts);
+            }
+        }
+        matches = new int[1 << Integer.bitCount(referencedFacts)];
+        for (int projected = 0; projected < matches.length; ++projected) {
+            final int state = deposit(projected, referencedFacts);
+            int ruleMatches = 0;
+            for (int i = 0; i < rules.length; ++i) {
+                if (rules[i].eval(state)) {
+                    ruleMatches |= 1 << i;
+                }
+            }
+            matches[projected] = ruleMatches;
+        }
+    }
+
+    /**
+     * @param state the fact state
+     * @return the bit vector of rules whose left-hand side matches the fact state
+     */
+    int matches(final int state) {
+        return matches[projection[0][state & 0xff] | projection[1][state >>> 8 & 0xff]
+                | projection[2][state >>> 16 & 0xff] | projection[3][state >>> 24]];
+    }
+
+    /**
+     * Gathers the bits of a value selected by a mask into the low-order bits.
+     */
+    private static int extract(final int value, final int mask) {
+        int result = 0;
+        int resultBit = 1;
+        for (int bits = mask; bits != 0; bits &= bits - 1) {
+            if ((value & Integer.lowestOneBit(bits)) != 0) {
+                result |= resultBit;
+            }
+            resultBit <<= 1;
+        }
+        return result;
+    }
+
+    /**
+     * Scatters the low-order bits of a value to the bit positions selected by a mask.
+     */
+    private static int deposit(final int value, final int mask) {
+        int result = 0;
+        int valueBit = 1;
+        for (int bits = mask; bits != 0; bits &= bits - 1) {
+            if ((value & valueBit) != 0) {
+                result |= Integer.lowestOneBit(bits);
+            }
+            valueBit <<= 1;
+        }
+        return result;
+    }
+}
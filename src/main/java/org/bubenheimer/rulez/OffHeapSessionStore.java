@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.bubenheimer.rulez.RuleEngine.formatState;
+
+/**
+ * <p>A storage mode for large numbers of rule engine sessions sharing a single rule base.
+ * Fact state and rule match state of all sessions live in a single off-heap slab indexed by
+ * session ID, and breadth-first evaluation operates directly on the slab. There are no per-session
+ * Java objects.</p>
+ *
+ * <p>Evaluation semantics are the same as for {@link BreadthFirstRuleEngine}. Fact persistence
+ * is not applied; the slab itself is the session state. Rule bases with {@link Counter}s are not
+ * supported, as the slab holds no counter values.</p>
+ *
+ * <p>Not thread-safe. Rule actions must modify the evaluated session via the
+ * {@link WritableState} passed to them, not via the store.</p>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class OffHeapSessionStore {
+    private static final class Log {
+        static final Logger LOG = Logger.getLogger(OffHeapSessionStore.class.getName());
+    }
+
+    /**
+     * Number of bytes per session in the slab: fact state followed by rule match state.
+     */
+    private static final int SESSION_BYTES = 8;
+
+    /**
+     * Offset of the rule match state within a session's slot.
+     */
+    private static final int RULE_MATCH_STATE_OFFSET = 4;
+
+    /**
+     * Maximum number of sessions supported by a single slab.
+     */
+    public static final int MAX_SESSIONS = Integer.MAX_VALUE / SESSION_BYTES;
+
+    /**
+     * The rule base shared by all sessions.
+     */
+    private final RuleBase ruleBase;
+
+    /**
+     * The off-heap slab holding the state of all sessions.
+     */
+    private final ByteBuffer slab;
+
+    /**
+     * The number of sessions in the slab.
+     */
+    private final int capacity;
+
+    /**
+     * The session currently being evaluated, or {@code -1}.
+     */
+    private int evaluatingSession = -1;
+
+    /**
+     * Indicates whether a rule action changed the state of the session being evaluated.
+     */
+    private boolean evaluationScheduled = false;
+
+    /**
+     * The fact state at the start of the current evaluation pass, passed to rule actions.
+     * There is just a single one to avoid garbage collection issues.
+     */
+    private final StateSnapshot passState = new StateSnapshot();
+
+    /**
+     * The writable state of the session being evaluated, passed to rule actions.
+     * There is just a single one to avoid garbage collection issues.
+     */
+    private final SessionState sessionState = new SessionState();
+
+    /**
+     * Modifies the fact state of the session being evaluated.
+     */
+    private final class SessionState extends AbstractWritableState {
+        @Override
+        public void addRemoveFacts(final int addFactVector, final int removeFactVector) {
+            actionStateChange(addFactVector, removeFactVector);
+        }
+    }
+
+    /**
+     * Allocates a slab for a fixed number of sessions. All sessions start out with all facts false
+     * and no rules matched.
+     * @param ruleBase the completely initialized rule base shared by all sessions
+     * @param capacity the number of sessions
+     * @throws IllegalArgumentException if the rule base has {@link Counter}s
+     */
+    public OffHeapSessionStore(final RuleBase ruleBase, final int capacity) {
+        if (capacity < 0 || capacity > MAX_SESSIONS) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        if (ruleBase.counters.length != 0) {
+            throw new IllegalArgumentException("Counters not supported");
+        }
+        this.ruleBase = ruleBase;
+        this.capacity = capacity;
+        slab = ByteBuffer.allocateDirect(capacity * SESSION_BYTES).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @return the rule base shared by all sessions
+     */
+    public RuleBase getRuleBase() {
+        return ruleBase;
+    }
+
+    /**
+     * @return the number of sessions in the slab
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @param session the session ID
+     * @return the raw fact state bit vector of the session
+     */
+    public int getFactState(final int session) {
+        return slab.getInt(offset(session));
+    }
+
+    /**
+     * @param session the session ID
+     * @return the rule match state bit vector of the session
+     */
+    public int getRuleMatchState(final int session) {
+        return slab.getInt(offset(session) + RULE_MATCH_STATE_OFFSET);
+    }
+
+    /**
+     * Sets the state of a session without evaluating its rules, e.g. to restore a session.
+     * @param session          the session ID
+     * @param factState        the raw fact state bit vector
+     * @param ruleMatchState   the rule match state bit vector
+     */
+    public void setState(final int session, final int factState, final int ruleMatchState) {
+        checkNotEvaluating();
+        final int offset = offset(session);
+        slab.putInt(offset, factState);
+        slab.putInt(offset + RULE_MATCH_STATE_OFFSET, ruleMatchState);
+    }
+
+    /**
+     * Resets the state of a session, all facts turn false and no rules are matched.
+     * @param session the session ID
+     */
+    public void clear(final int session) {
+        setState(session, 0, 0);
+    }
+
+    /**
+     * @param session the session ID
+     * @param fact    the fact
+     * @return whether the fact is valid (true) in the session
+     */
+    public boolean isValid(final int session, final Fact fact) {
+        return (getFactState(session) & (1 << fact.id)) != 0;
+    }
+
+    /**
+     * Adds facts to the state of a session via a fact bit vector and evaluates the session's
+     * rules if the state changed.
+     * @param session      the session ID
+     * @param factVector   the facts to add
+     * @throws IllegalArgumentException if more than one fact of an exclusive group is added
+     */
+    public void addFacts(final int session, final int factVector) {
+        addRemoveFacts(session, factVector, 0);
+    }
+
+    /**
+     * Removes facts from the state of a session via a fact bit vector and evaluates the session's
+     * rules if the state changed.
+     * @param session      the session ID
+     * @param factVector   the facts to remove
+     */
+    public void removeFacts(final int session, final int factVector) {
+        addRemoveFacts(session, 0, factVector);
+    }
+
+    /**
+     * Adds facts to the state of a session and removes facts from it via two fact bit vectors,
+     * and evaluates the session's rules if the state changed.
+     * @param session            the session ID
+     * @param addFactVector      the facts to add
+     * @param removeFactVector   the facts to remove
+     * @throws IllegalArgumentException if more than one fact of an exclusive group is added
+     */
+    public void addRemoveFacts(
+            final int session, final int addFactVector, final int removeFactVector) {
+        checkNotEvaluating();
+        final int offset = offset(session);
+        final int oldState = slab.getInt(offset);
+        final int state = (oldState | addFactVector)
+                & ~(removeFactVector | ruleBase.exclusiveRemovals(addFactVector));
+        if (oldState != state) {
+            slab.putInt(offset, state);
+            evaluate(session, offset);
+        }
+    }
+
+    /**
+     * Evaluates the rules of a session until its state no longer changes.
+     * @param session the session ID
+     * @param offset  the session's offset in the slab
+     */
+    private void evaluate(final int session, final int offset) {
+        evaluatingSession = session;
+        try {
+            int ruleMatchState = slab.getInt(offset + RULE_MATCH_STATE_OFFSET);
+            do {
+                evaluationScheduled = false;
+                passState.state = slab.getInt(offset);
+                if (Tracing.enabled && Log.LOG.isLoggable(Level.FINE)) {
+                    Log.LOG.fine("Evaluating session " + session + ": "
+                            + formatState(passState.state));
+                }
+                ruleMatchState = BreadthFirstRuleEngine.evaluate(
+                        ruleBase, -1, passState, ruleMatchState, sessionState);
+            } while (evaluationScheduled);
+            slab.putInt(offset + RULE_MATCH_STATE_OFFSET, ruleMatchState);
+        } finally {
+            evaluatingSession = -1;
+        }
+    }
+
+    /**
+     * Applies a fact state change requested by a rule action to the session being evaluated.
+     * @param addFactVector      the facts to add
+     * @param removeFactVector   the facts to remove
+     */
+    private void actionStateChange(final int addFactVector, final int removeFactVector) {
+        if (evaluatingSession < 0) {
+            throw new IllegalStateException("No session is being evaluated");
+        }
+        final int offset = offset(evaluatingSession);
+        final int oldState = slab.getInt(offset);
+        final int state = (oldState | addFactVector)
+                & ~(removeFactVector | ruleBase.exclusiveRemovals(addFactVector));
+        if (oldState != state) {
+            slab.putInt(offset, state);
+            evaluationScheduled = true;
+        }
+    }
+
+    private void checkNotEvaluating() {
+        if (evaluatingSession >= 0) {
+            throw new IllegalStateException("Session " + evaluatingSession + " is being evaluated");
+        }
+    }
+
+    private int offset(final int session) {
+        if (session < 0 || session >= capacity) {
+            throw new IndexOutOfBoundsException("Invalid session: " + session);
+        }
+        return session * SESSION_BYTES;
+    }
+}
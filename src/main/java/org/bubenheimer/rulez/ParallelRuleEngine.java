@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>A breadth-first rule engine that partitions the rule base into independent groups of rules
+ * and evaluates the groups of each evaluation pass in parallel on a {@link ForkJoinPool}.</p>
+ *
+ * <p>Two rules are in the same group if their footprints share a fact, directly or
+ * transitively. A rule's footprint is the facts referenced by its left-hand side plus the facts
+ * declared via {@link Rule#setWrittenFacts(Fact...)}. A rule without declared written facts may
+ * modify any fact, which puts all rules in a single group. Rule actions must only read and
+ * modify facts in their footprint. Rule bases with {@link Counter}s are not supported, as groups
+ * evaluated in parallel cannot share counter values.</p>
+ *
+ * <p>Results are merged deterministically after each pass, so final fact state and rule match
+ * state are the same as for {@link BreadthFirstRuleEngine}. The order of rule firings across
+ * groups is unspecified.</p>
+ *
+ * <p>Not thread-safe.</p>
+ */
+@SuppressWarnings("WeakerAccess")
+public class ParallelRuleEngine extends BreadthFirstRuleEngine {
+    private static final class Log {
+        static final Logger LOG = Logger.getLogger(ParallelRuleEngine.class.getName());
+    }
+
+    /**
+     * The pool to evaluate rule groups on.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Indicates whether an evaluation of the rule base has been scheduled due to changed state.
+     */
+    private boolean evaluationScheduled = false;
+
+    /**
+     * Indicates whether we are currently evaluating the rule base.
+     */
+    private boolean isEvaluating = false;
+
+    /**
+     * The rule base partitioned into {@link #partitions}. May be null.
+     */
+    private RuleBase partitionedRuleBase;
+
+    /**
+     * The number of rules of the rule base when it was partitioned.
+     */
+    private int partitionedRuleCount;
+
+    /**
+     * The independent groups of rules.
+     */
+    private Partition[] partitions;
+
+    /**
+     * An independent group of rules, evaluated as a fork-join task.
+     */
+    private static final class Partition extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The rule base.
+         */
+        final transient RuleBase ruleBase;
+
+        /**
+         * The bit vector of the group's rules.
+         */
+        final int ruleMask;
+
+        /**
+         * The bit vector of facts read or written by the group's rules.
+         */
+        final int factMask;
+
+        /**
+         * The fact state at the start of the pass.
+         */
+        final transient StateSnapshot oldState = new StateSnapshot();
+
+        /**
+         * The group's fact state, modified by rule actions.
+         */
+        final transient PartitionState newState;
+
+        /**
+         * The rule match state, updated by the pass.
+         */
+        int ruleMatchState;
+
+        Partition(final RuleBase ruleBase, final int ruleMask, final int factMask) {
+            this.ruleBase = ruleBase;
+            this.ruleMask = ruleMask;
+            this.factMask = factMask;
+            newState = new PartitionState(ruleBase);
+        }
+
+        /**
+         * Prepares the group for an evaluation pass.
+         * @param state          the fact state
+         * @param ruleMatchState the rule match state
+         * @param sharedFacts    the bit vector of facts of a {@link SharedFactDomain}
+         */
+        void prepare(final int state, final int ruleMatchState, final int sharedFacts) {
+            reinitialize();
+            oldState.state = state;
+            oldState.firedRules = 0;
+            newState.state = state;
+            newState.sharedFacts = sharedFacts;
+            newState.changed = false;
+            this.ruleMatchState = ruleMatchState;
+        }
+
+        @Override
+        protected void compute() {
+            ruleMatchState = evaluate(ruleBase, ruleMask, oldState, ruleMatchState, newState);
+        }
+    }
+
+    /**
+     * The fact state of a group of rules during an evaluation pass.
+     */
+    private static final class PartitionState extends AbstractWritableState {
+        private final RuleBase ruleBase;
+
+        /**
+         * the current state
+         */
+        int state;
+
+        /**
+         * the bit vector of facts of a {@link SharedFactDomain}, which are not changed locally
+         */
+        int sharedFacts;
+
+        /**
+         * whether any rule action has changed the state
+         */
+        boolean changed;
+
+        PartitionState(final RuleBase ruleBase) {
+            this.ruleBase = ruleBase;
+        }
+
+        @Override
+        public void addRemoveFacts(final int addFactVector, final int removeFactVector) {
+            final int newState = (state | addFactVector) & ~(removeFactVector | sharedFacts
+                    | ruleBase.exclusiveRemovals(addFactVector)) | state & sharedFacts;
+            if (newState != state) {
+                state = newState;
+                changed = true;
+            }
+        }
+    }
+
+    /**
+     * Creates a rule engine evaluating on the common pool.
+     */
+    public ParallelRuleEngine() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool the pool to evaluate independent groups of rules on
+     */
+    public ParallelRuleEngine(final ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void setRuleBase(final RuleBase ruleBase) {
+        super.setRuleBase(ruleBase);
+        partitionedRuleBase = null;
+    }
+
+    @Override
+    protected void checkRuleBase(final RuleBase ruleBase) {
+        super.checkRuleBase(ruleBase);
+        if (ruleBase.counters.length != 0) {
+            throw new IllegalArgumentException("Counters not supported");
+        }
+    }
+
+    @Override
+    protected void onRuleBaseSwap(final RuleBase oldRuleBase, final RuleBase newRuleBase) {
+        super.onRuleBaseSwap(oldRuleBase, newRuleBase);
+        partitionedRuleBase = null;
+    }
+
+    @Override
+    protected boolean isEvaluating() {
+        return isEvaluating;
+    }
+
+    @Override
+    protected void scheduleEvaluation() {
+        if (isEvaluating) {
+            evaluationScheduled = true;
+            return;
+        }
+
+        isEvaluating = true;
+        baseState.firedRules = 0;
+        do {
+            evaluationScheduled = false;
+            installPendingRuleBase();
+            evaluateParallel();
+        } while (evaluationScheduled);
+
+        isEvaluating = false;
+
+        handleEvaluationEnd(baseState.firedRules);
+    }
+
+    /**
+     * Evaluates the rule base, with independent groups of rules in parallel.
+     */
+    private void evaluateParallel() {
+        final RuleBase ruleBase = getRuleBase();
+        if (ruleBase == null) {
+            return;
+        }
+        final Partition[] partitions = getPartitions(ruleBase);
+        if (partitions.length <= 1) {
+            evaluate();
+            return;
+        }
+        final FactState factState = getFactState();
+        final int state = factState.getState();
+        final int ruleMatchState = getRuleMatchState();
+        if (Tracing.enabled && Log.LOG.isLoggable(Level.FINE)) {
+            Log.LOG.fine("Evaluating " + partitions.length + " rule groups: " + formatState(state));
+        }
+        final int sharedFacts = factState.sharedFactMask();
+        for (final Partition partition : partitions) {
+            partition.prepare(state, ruleMatchState, sharedFacts);
+        }
+        for (int i = 1; i < partitions.length; ++i) {
+            pool.execute(partitions[i]);
+        }
+        partitions[0].invoke();
+        int newState = state;
+        int newRuleMatchState = ruleMatchState;
+        boolean changed = false;
+        for (final Partition partition : partitions) {
+            partition.join();
+            newState = newState & ~partition.factMask
+                    | partition.newState.state & partition.factMask;
+            newRuleMatchState = newRuleMatchState & ~partition.ruleMask
+                    | partition.ruleMatchState & partition.ruleMask;
+            changed |= partition.newState.changed;
+            baseState.firedRules |= partition.oldState.firedRules;
+        }
+        setRuleMatchState(newRuleMatchState);
+        factState.addRemoveFacts(newState & ~state, state & ~newState);
+        if (changed) {
+            evaluationScheduled = true;
+        }
+    }
+
+    /**
+     * @param ruleBase the rule base
+     * @return the independent groups of rules of the rule base, ordered by their first rule
+     */
+    private Partition[] getPartitions(final RuleBase ruleBase) {
+        final int ruleCount = ruleBase.rules.size();
+        if (ruleBase == partitionedRuleBase && ruleCount == partitionedRuleCount) {
+            return partitions;
+        }
+        final ArrayList<int[]> groups = new ArrayList<>();
+        for (int i = 0; i < ruleCount; ++i) {
+            final Rule rule = ruleBase.rules.get(i);
+            int ruleMask = 1 << i;
+            int writtenFacts = rule.getWrittenFacts();
+            // Adding a fact of an exclusive group removes the group's other facts
+            for (final int exclusiveGroup : ruleBase.exclusiveGroups) {
+                if ((writtenFacts & exclusiveGroup) != 0) {
+                    writtenFacts |= exclusiveGroup;
+                }
+            }
+            int factMask = rule.getReferencedFacts() | writtenFacts;
+            int insertionIndex = groups.size();
+            for (int j = groups.size() - 1; j >= 0; --j) {
+                final int[] group = groups.get(j);
+                if ((group[1] & factMask) != 0) {
+                    ruleMask |= group[0];
+                    factMask |= group[1];
+                    groups.remove(j);
+                    insertionIndex = j;
+                }
+            }
+            groups.add(insertionIndex, new int[] { ruleMask, factMask });
+        }
+        partitions = new Partition[groups.size()];
+        for (int i = 0; i < partitions.length; ++i) {
+            final int[] group = groups.get(i);
+            partitions[i] = new Partition(ruleBase, group[0], group[1]);
+        }
+        partitionedRuleBase = ruleBase;
+        partitionedRuleCount = ruleCount;
+        if (Tracing.enabled && Log.LOG.isLoggable(Level.FINE)) {
+            Log.LOG.fine("Rule base partitioned into " + partitions.length + " rule groups");
+        }
+        return partitions;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Aggregate counts across many rule engine sessions, maintained incrementally from fact state
+ * changes: the number of sessions in which each fact is true, and the number of evaluations in
+ * which each rule fired within a recent time window. Queries take time proportional to the number
+ * of facts or rules, regardless of the number of sessions.</p>
+ *
+ * <p>Attached rule engines should share a rule base, or at least fact and rule IDs. Fact counts
+ * reflect each session's own facts; facts from a {@link SharedFactDomain} are not counted.</p>
+ *
+ * <p>Counters are striped to keep contention low when sessions run on many threads. Fire counts
+ * are approximate around time bucket boundaries. Thread-safe, except that a rule engine must be
+ * attached and detached on its own thread.</p>
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class PopulationIndex {
+    /**
+     * The number of sessions in which each fact is true.
+     */
+    private final LongAdder[] factCounts = new LongAdder[RuleBase.MAX_FACTS];
+
+    /**
+     * The number of attached sessions.
+     */
+    private final LongAdder sessionCount = new LongAdder();
+
+    /**
+     * The length of a time bucket.
+     */
+    private final long bucketNanos;
+
+    /**
+     * The number of time buckets in the window.
+     */
+    private final int bucketCount;
+
+    /**
+     * Per rule and time bucket, indexed by {@code bucket * MAX_RULES + rule}: the number of
+     * evaluations in which the rule fired.
+     */
+    private final LongAdder[] fireCounts;
+
+    /**
+     * Per time bucket: the number of the time period currently counted in the bucket.
+     */
+    private final AtomicLongArray bucketPeriods;
+
+    /**
+     * Creates an index with a one-minute window for rule fire counts in one-second buckets.
+     */
+    public PopulationIndex() {
+        this(60, TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * @param bucketCount the number of time buckets for rule fire counts
+     * @param bucketNanos the length of a time bucket in nanoseconds. The window spans
+     *                    {@code bucketCount * bucketNanos}.
+     */
+    public PopulationIndex(final int bucketCount, final long bucketNanos) {
+        if (bucketCount < 1 || bucketNanos < 1) {
+            throw new IllegalArgumentException("bucketCount: " + bucketCount
+                    + ", bucketNanos: " + bucketNanos);
+        }
+        this.bucketCount = bucketCount;
+        this.bucketNanos = bucketNanos;
+        for (int i = 0; i < factCounts.length; ++i) {
+            factCounts[i] = new LongAdder();
+        }
+        fireCounts = new LongAdder[bucketCount * RuleBase.MAX_RULES];
+        for (int i = 0; i < fireCounts.length; ++i) {
+            fireCounts[i] = new LongAdder();
+        }
+        bucketPeriods = new AtomicLongArray(bucketCount);
+        final long stalePeriod = period() - bucketCount;
+        for (int i = 0; i < bucketCount; ++i) {
+            bucketPeriods.set(i, stalePeriod);
+        }
+    }
+
+    /**
+     * Attaches a rule engine, counting its current facts. To be called on the rule engine's
+     * thread.
+     * @param ruleEngine the rule engine
+     */
+    public void attach(final RuleEngine ruleEngine) {
+        final FactState factState = ruleEngine.getFactState();
+        if (factState.populationIndex != null) {
+            throw new IllegalStateException("Rule engine already attached to an index");
+        }
+        factState.populationIndex = this;
+        sessionCount.increment();
+        factsChanged(0, factState.getLocalState());
+    }
+
+    /**
+     * Detaches a rule engine, no longer counting its facts. To be called on the rule engine's
+     * thread.
+     * @param ruleEngine the rule engine
+     */
+    public void detach(final RuleEngine ruleEngine) {
+        final FactState factState = ruleEngine.getFactState();
+        if (factState.populationIndex != this) {
+            return;
+        }
+        factsChanged(factState.getLocalState(), 0);
+        sessionCount.decrement();
+        factState.populationIndex = null;
+    }
+
+    /**
+     * @return the number of attached sessions
+     */
+    public long getSessionCount() {
+        return sessionCount.sum();
+    }
+
+    /**
+     * @param fact the fact
+     * @return the number of sessions in which the fact is true
+     */
+    public long getFactCount(final Fact fact) {
+        return factCounts[fact.id].sum();
+    }
+
+    /**
+     * @return the number of sessions in which each fact is true, indexed by fact ID
+     */
+    public long[] getFactCounts() {
+        final long[] counts = new long[RuleBase.MAX_FACTS];
+        for (int i = 0; i < counts.length; ++i) {
+            counts[i] = factCounts[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * @param ruleIndex the rule's index in the rule base
+     * @return the number of evaluations within the window in which the rule fired
+     */
+    public long getFireCount(final int ruleIndex) {
+        final long period = period();
+        long count = 0L;
+        for (int bucket = 0; bucket < bucketCount; ++bucket) {
+            if (period - bucketPeriods.get(bucket) < bucketCount) {
+                count += fireCounts[bucket * RuleBase.MAX_RULES + ruleIndex].sum();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of evaluations within the window in which each rule fired, indexed by
+     * rule index
+     */
+    public long[] getFireCounts() {
+        final long[] counts = new long[RuleBase.MAX_RULES];
+        final long period = period();
+        for (int bucket = 0; bucket < bucketCount; ++bucket) {
+            if (period - bucketPeriods.get(bucket) < bucketCount) {
+                for (int rule = 0; rule < RuleBase.MAX_RULES; ++rule) {
+                    counts[rule] += fireCounts[bucket * RuleBase.MAX_RULES + rule].sum();
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Counts a change of a session's facts.
+     * @param oldState the previous fact state
+     * @param newState the new fact state
+     */
+    void factsChanged(final int oldState, final int newState) {
+        for (int bits = oldState & ~newState; bits != 0; bits &= bits - 1) {
+            factCounts[Integer.numberOfTrailingZeros(bits)].decrement();
+        }
+        for (int bits = newState & ~oldState; bits != 0; bits &= bits - 1) {
+            factCounts[Integer.numberOfTrailingZeros(bits)].increment();
+        }
+    }
+
+    /**
+     * Counts the rules fired by an evaluation.
+     * @param firedRules the bit vector of fired rules
+     */
+    void rulesFired(final int firedRules) {
+        if (firedRules == 0) {
+            return;
+        }
+        final long period = period();
+        final int bucket = (int) Math.floorMod(period, (long) bucketCount);
+        final long bucketPeriod = bucketPeriods.get(bucket);
+        if (bucketPeriod != period && bucketPeriods.compareAndSet(bucket, bucketPeriod, period)) {
+            // The bucket was last used a full window ago
+            for (int rule = 0; rule < RuleBase.MAX_RULES; ++rule) {
+                fireCounts[bucket * RuleBase.MAX_RULES + rule].reset();
+            }
+        }
+        for (int bits = firedRules; bits != 0; bits &= bits - 1) {
+            fireCounts[bucket * RuleBase.MAX_RULES + Integer.numberOfTrailingZeros(bits)]
+                    .increment();
+        }
+    }
+
+    /**
+     * @return the number of the current time period
+     */
+    private long period() {
+        return System.nanoTime() / bucketNanos;
+    }
+}
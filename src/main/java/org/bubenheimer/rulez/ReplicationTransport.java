@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+/**
+ * Carries replication frames from a {@link FactStateReplicator} to a {@link FactStateReplica},
+ * typically on another node. Frames must be delivered in order; lost frames are tolerated and
+ * recovered from by the next snapshot frame.
+ */
+public interface ReplicationTransport {
+    /**
+     * Sends a frame. Invoked by a single thread at a time. If the method throws, the frame is
+     * lost, and the exception propagates to the {@link FactStateReplicator}'s executor after the
+     * remaining frames have been handed to a new send task.
+     * @param frame  the buffer holding the frame, reused after the method returns
+     * @param length the length of the frame
+     */
+    void send(byte[] frame, int length);
+}
@@ -69,18 +69,36 @@ public final class Rule {
     /**
      * The positive facts of the rule's left-hand side.
      */
-    private final ArrayList<Integer> conditions = new ArrayList<>();
+    final ArrayList<Integer> conditions = new ArrayList<>();
 
     /**
      * The negated facts of the rule's left-hand side.
      */
-    private final ArrayList<Integer> negConditions = new ArrayList<>();
+    final ArrayList<Integer> negConditions = new ArrayList<>();
+
+    /**
+     * The left-hand side's boolean expressions in disjunctive normal form: consecutive pairs of
+     * positive and negative fact bit vectors. {@code null} if there are none.
+     */
+    int[] terms;
 
     /**
      * The rule action to execute when the rule fires.
      */
     RuleAction ruleAction;
 
+    /**
+     * Bit vector of the facts the rule action may add or remove. All facts unless declared
+     * otherwise.
+     */
+    private int writtenFacts = -1;
+
+    /**
+     * Bit vector of the facts gating the rule's {@link RuleModule}, if any. All of them must be
+     * true for the rule to be evaluated.
+     */
+    int gate = 0;
+
     /**
      * Create a rule.
      * @param name         the rule name for debugging
@@ -92,6 +110,21 @@ public final class Rule {
         this.matchType = matchType;
     }
 
+    /**
+     * Create a copy of a rule with a different rule action.
+     * @param rule         the rule to copy
+     * @param ruleAction   the rule action of the copy
+     */
+    Rule(final Rule rule, final RuleAction ruleAction) {
+        this(rule.name, rule.matchType);
+        conditions.addAll(rule.conditions);
+        negConditions.addAll(rule.negConditions);
+        terms = rule.terms;
+        writtenFacts = rule.writtenFacts;
+        gate = rule.gate;
+        this.ruleAction = ruleAction;
+    }
+
     /**
      * @return the rule name
      */
@@ -117,6 +150,14 @@ public final class Rule {
         for (final Fact fact : facts) {
             factVector |= 1 << fact.id;
         }
+        addCondition(factVector);
+    }
+
+    /**
+     * Add a conjunction of facts to the rule's left-hand side.
+     * @param factVector the fact bit vector of the conjunction of facts
+     */
+    void addCondition(final int factVector) {
         conditions.add(factVector);
     }
 
@@ -129,9 +170,27 @@ public final class Rule {
         for (final Fact fact : facts) {
             factVector |= 1 << fact.id;
         }
+        addNegCondition(factVector);
+    }
+
+    /**
+     * Add a conjunction of negated facts to the rule's left-hand side.
+     * @param factVector the fact bit vector of the conjunction of facts
+     */
+    void addNegCondition(final int factVector) {
         negConditions.add(factVector);
     }
 
+    /**
+     * Add a boolean expression of facts to the rule's left-hand side. The expression is compiled
+     * to disjunctive normal form and combined with any previously added expressions.
+     * @param condition the boolean expression
+     */
+    public void addCondition(final Condition condition) {
+        final int[] conditionTerms = condition.compile();
+        terms = terms == null ? conditionTerms : Condition.and(terms, conditionTerms);
+    }
+
     /**
      * Specifies the rule's executable action (right-hand side)
      * @param ruleAction the rule action
@@ -140,6 +199,28 @@ public final class Rule {
         this.ruleAction = ruleAction;
     }
 
+    /**
+     * Declares the facts that the rule action may add or remove. Undeclared, a rule action may
+     * modify any fact. Rule engines may rely on the declaration for optimizations.
+     * @param facts the facts the rule action may modify
+     */
+    @SuppressWarnings("unused")
+    public void setWrittenFacts(final Fact... facts) {
+        int factVector = 0;
+        for (final Fact fact : facts) {
+            factVector |= 1 << fact.id;
+        }
+        writtenFacts = factVector;
+    }
+
+    /**
+     * @return the bit vector of facts that the rule action may add or remove
+     */
+    @SuppressWarnings("WeakerAccess")
+    public int getWrittenFacts() {
+        return writtenFacts;
+    }
+
     /**
      * Retrieve the conjunctions of facts from the rule's left-hand side in the native
      * integer format. Not recommended for performance-critical operations.
@@ -162,6 +243,33 @@ public final class Rule {
         return Collections.unmodifiableList(negConditions);
     }
 
+    /**
+     * @return the bit vector of all facts referenced by the rule's left-hand side or its
+     * module gate
+     */
+    int getReferencedFacts() {
+        return getConditionFacts() | gate;
+    }
+
+    /**
+     * @return the bit vector of all facts referenced by the rule's left-hand side
+     */
+    int getConditionFacts() {
+        int factVector = 0;
+        for (final int condition : conditions) {
+            factVector |= condition;
+        }
+        for (final int negCondition : negConditions) {
+            factVector |= negCondition;
+        }
+        if (terms != null) {
+            for (final int term : terms) {
+                factVector |= term;
+            }
+        }
+        return factVector;
+    }
+
     @Override
     public String toString() {
         return name;
@@ -184,6 +292,14 @@ public final class Rule {
                 return false;
             }
         }
+        if (terms != null) {
+            for (int i = 0; i < terms.length; i += 2) {
+                if ((state & terms[i]) == terms[i] && (state & terms[i + 1]) == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
         return true;
     }
 }
@@ -22,6 +22,7 @@ import org.bubenheimer.rulez.fluent.Proposition;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Locale;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -31,7 +32,9 @@ import java.util.logging.Logger;
  */
 @SuppressWarnings("WeakerAccess")
 public class RuleBase {
-    private static final Logger LOG = Logger.getLogger(RuleBase.class.getName());
+    private static final class Log {
+        static final Logger LOG = Logger.getLogger(RuleBase.class.getName());
+    }
 
     /** Maximum number of facts. Change this to {@code 64} if long is used instead of int to
      * represent the fact state. */
@@ -45,11 +48,73 @@ public class RuleBase {
 
     private int factIdCounter = 0;
 
+    /**
+     * Bit vector of the facts with {@link Fact#PERSISTENCE_DISK} persistence.
+     */
+    int persistentFacts = 0;
+
+    /**
+     * The counters
+     */
+    Counter[] counters = new Counter[0];
+
+    /**
+     * Bit vectors of the exclusive fact groups.
+     */
+    int[] exclusiveGroups = new int[0];
+
+    /**
+     * Bit vector of the facts in exclusive fact groups.
+     */
+    int exclusiveFacts = 0;
+
     /**
      * The rules
      */
     final ArrayList<Rule> rules = new ArrayList<>(MAX_RULES);
 
+    /**
+     * Bit vector of all rules.
+     */
+    int allRules = 0;
+
+    /**
+     * Bit vector of the rules with match type {@link Rule#MATCH_ONCE}.
+     */
+    int onceRules = 0;
+
+    /**
+     * Bit vector of the rules with match type {@link Rule#MATCH_RESET}.
+     */
+    int resetRules = 0;
+
+    /**
+     * Per rule module: the bit vector of facts gating the module, including the gates of
+     * enclosing modules.
+     */
+    int[] moduleGates = new int[0];
+
+    /**
+     * Per rule module: the bit vector of the module's rules, excluding nested modules' rules.
+     */
+    int[] moduleRules = new int[0];
+
+    /**
+     * Per fact ID: the bit vector of rules referencing the fact. The element at index
+     * {@link #MAX_FACTS} holds the number of rules indexed. May be null.
+     */
+    private volatile int[] factRules;
+
+    /**
+     * Precomputed rule matches by fact state. May be null.
+     */
+    MatchTable matchTable;
+
+    /**
+     * Memoized evaluation results. May be null.
+     */
+    TransitionCache transitionCache;
+
     /**
      * @param persistenceStore a persistence store for saving and restoring persistent fact state.
      *                         May be null to not use persistent state.
@@ -81,10 +146,14 @@ public class RuleBase {
         if (factIdCounter >= MAX_FACTS) {
             throw new AssertionError("Too many facts");
         } else {
-            if (LOG.isLoggable(Level.FINE)) {
-                LOG.fine(String.format(Locale.US, "ID %2d for new fact %s", factIdCounter, name));
+            if (Tracing.enabled && Log.LOG.isLoggable(Level.FINE)) {
+                Log.LOG.fine(String.format(
+                        Locale.US, "ID %2d for new fact %s", factIdCounter, name));
             }
             final Fact fact = new Fact(factIdCounter, name, persistence);
+            if (persistence == Fact.PERSISTENCE_DISK) {
+                persistentFacts |= 1 << factIdCounter;
+            }
             facts[factIdCounter++] = fact;
             return fact;
         }
@@ -92,10 +161,122 @@ public class RuleBase {
 
     PersistenceStore persistenceStore;
 
+    /**
+     * Create an immutable set of facts for modifying the fact state without allocation.
+     * @param facts the facts of this rule base
+     * @return the new fact set
+     */
+    @SuppressWarnings("unused")
+    public @NotNull FactSet newFactSet(final Fact... facts) {
+        int factVector = 0;
+        for (final Fact fact : facts) {
+            if (fact.id >= factIdCounter || this.facts[fact.id] != fact) {
+                throw new IllegalArgumentException("Fact not in rule base: " + fact.name);
+            }
+            factVector |= 1 << fact.id;
+        }
+        return new FactSet(factVector);
+    }
+
     public int getFactCount() {
         return factIdCounter;
     }
 
+    /**
+     * Look up a fact by name.
+     * @param name the fact name
+     * @return the fact, or {@code null} if there is no fact with the given name
+     */
+    @SuppressWarnings("unused")
+    public Fact findFact(final String name) {
+        for (int i = 0; i < factIdCounter; ++i) {
+            if (facts[i].name.equals(name)) {
+                return facts[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Create a new counter.
+     * @param name counter name for debugging
+     * @return the new counter
+     */
+    @SuppressWarnings("unused")
+    public @NotNull Counter newCounter(final String name) {
+        final Counter counter = new Counter(counters.length, name);
+        counters = Arrays.copyOf(counters, counters.length + 1);
+        counters[counter.id] = counter;
+        return counter;
+    }
+
+    /**
+     * Create a new fact that is true while a counter is at or above a threshold. The fact is
+     * maintained by the counter and must not be added or removed directly.
+     * @param counter   a counter of this rule base
+     * @param threshold the threshold. Must be positive, so that threshold facts are consistent
+     *                  with a cleared fact state.
+     * @return the new fact
+     */
+    @SuppressWarnings("unused")
+    public @NotNull Fact newThreshold(final Counter counter, final int threshold) {
+        if (counter.id >= counters.length || counters[counter.id] != counter) {
+            throw new IllegalArgumentException("Counter not in rule base: " + counter.name);
+        }
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("Threshold must be positive: " + threshold);
+        }
+        final Fact fact = newFact(counter.name + ">=" + threshold);
+        counter.addThreshold(threshold, fact);
+        return fact;
+    }
+
+    /**
+     * Create a group of mutually exclusive facts, of which at most one is true at a time. Adding
+     * a member fact to the fact state removes the other members in the same operation; adding
+     * more than one member at once is an error. Exclusive groups are enforced by
+     * {@link FactState}.
+     *
+     * @param facts the member facts of this rule base. Must not be members of another group.
+     * @return the group's fact set
+     */
+    @SuppressWarnings("unused")
+    public @NotNull FactSet newExclusiveGroup(final Fact... facts) {
+        final FactSet group = newFactSet(facts);
+        if ((group.factVector & exclusiveFacts) != 0) {
+            throw new IllegalArgumentException("Fact already in an exclusive group: "
+                    + RuleEngine.formatState(group.factVector & exclusiveFacts));
+        }
+        exclusiveGroups = Arrays.copyOf(exclusiveGroups, exclusiveGroups.length + 1);
+        exclusiveGroups[exclusiveGroups.length - 1] = group.factVector;
+        exclusiveFacts |= group.factVector;
+        return group;
+    }
+
+    /**
+     * Determines the facts to remove to keep exclusive fact groups one-hot when adding facts.
+     * @param addFactVector the facts to add
+     * @return the other members of the exclusive groups of the added facts
+     * @throws IllegalArgumentException if more than one fact of an exclusive group is added
+     */
+    int exclusiveRemovals(final int addFactVector) {
+        if ((addFactVector & exclusiveFacts) == 0) {
+            return 0;
+        }
+        int removals = 0;
+        for (final int group : exclusiveGroups) {
+            final int added = addFactVector & group;
+            if (added != 0) {
+                if ((added & added - 1) != 0) {
+                    throw new IllegalArgumentException("Multiple facts of an exclusive group: "
+                            + RuleEngine.formatState(added));
+                }
+                removals |= group & ~added;
+            }
+        }
+        return removals;
+    }
+
     /**
      * Create a rule via a fluent builder pattern with a default match type of
      * {@link Rule#MATCH_ALWAYS}.
@@ -117,11 +298,135 @@ public class RuleBase {
     public @NotNull Proposition rule(
             final String name,
             @SuppressWarnings("SameParameterValue") @Rule.MatchType final int matchType) {
+        final Rule rule = new Rule(name, matchType);
+        addRule(rule);
+        return new Proposition(rule);
+    }
+
+    /**
+     * Create a module of rules that are only evaluated while all gating facts are true. While the
+     * gate is closed, evaluation skips the module's rules with a single mask test, as if they
+     * did not match: {@link Rule#MATCH_RESET} rules become eligible to fire again.
+     *
+     * @param gate the gating facts
+     * @return the module
+     */
+    @SuppressWarnings("unused")
+    public @NotNull RuleModule module(final Fact... gate) {
+        return newModule(0, gate);
+    }
+
+    /**
+     * Create a rule module
+     * @param enclosingGate the gate of the enclosing module, if any
+     * @param gate          the module's own gating facts
+     * @return the module
+     */
+    RuleModule newModule(final int enclosingGate, final Fact... gate) {
+        final int index = moduleGates.length;
+        moduleGates = Arrays.copyOf(moduleGates, index + 1);
+        moduleRules = Arrays.copyOf(moduleRules, index + 1);
+        moduleGates[index] = enclosingGate | AbstractWritableState.factVector(gate);
+        return new RuleModule(this, index);
+    }
+
+    /**
+     * Add a rule to a module
+     * @param rule        the rule
+     * @param moduleIndex the module index
+     */
+    void addRule(final Rule rule, final int moduleIndex) {
+        rule.gate = moduleGates[moduleIndex];
+        addRule(rule);
+        moduleRules[moduleIndex] |= 1 << rules.size() - 1;
+    }
+
+    /**
+     * Add a rule
+     * @param rule the rule
+     */
+    void addRule(final Rule rule) {
         if (rules.size() >= MAX_RULES) {
             throw new AssertionError("Too many rules");
         }
-        final Rule rule = new Rule(name, matchType);
+        final int ruleBit = 1 << rules.size();
         rules.add(rule);
-        return new Proposition(rule);
+        allRules |= ruleBit;
+        if (rule.matchType == Rule.MATCH_ONCE) {
+            onceRules |= ruleBit;
+        } else if (rule.matchType == Rule.MATCH_RESET) {
+            resetRules |= ruleBit;
+        }
+        matchTable = null;
+        if (transitionCache != null) {
+            transitionCache.clear();
+        }
+    }
+
+    /**
+     * Sets a cache memoizing the outcome of evaluations that only fire rules with a
+     * {@link FactChangeAction}. Set it when the rule base is completely initialized and use the
+     * cache with this rule base only. Adding rules clears the cache, while other changes to
+     * existing rules require clearing it explicitly.
+     *
+     * @param transitionCache the cache. May be null to not memoize evaluations.
+     */
+    @SuppressWarnings("unused")
+    public void setTransitionCache(final TransitionCache transitionCache) {
+        this.transitionCache = transitionCache;
+    }
+
+    /**
+     * @return the cache memoizing evaluation outcomes. May be null.
+     */
+    @SuppressWarnings("unused")
+    public TransitionCache getTransitionCache() {
+        return transitionCache;
+    }
+
+    /**
+     * @return per fact ID, the bit vector of rules referencing the fact, indexed as of the
+     * current number of rules
+     */
+    int[] getFactRules() {
+        int[] factRules = this.factRules;
+        if (factRules == null || factRules[MAX_FACTS] != rules.size()) {
+            factRules = new int[MAX_FACTS + 1];
+            for (int i = 0; i < rules.size(); ++i) {
+                final int referencedFacts = rules.get(i).getReferencedFacts();
+                for (int bits = referencedFacts; bits != 0; bits &= bits - 1) {
+                    factRules[Integer.numberOfTrailingZeros(bits)] |= 1 << i;
+                }
+            }
+            factRules[MAX_FACTS] = rules.size();
+            this.factRules = factRules;
+        }
+        return factRules;
+    }
+
+    /**
+     * Precomputes a truth table from fact state to matching rules if the rules' left-hand sides
+     * reference only a small number of facts, so that evaluation no longer checks rules one by
+     * one. Call when the rule base is completely initialized; adding rules discards the table,
+     * while changes to existing rules' left-hand sides require calling this method again.
+     *
+     * @return whether a table was built
+     */
+    @SuppressWarnings("unused")
+    public boolean compileMatchTable() {
+        int referencedFacts = 0;
+        for (final Rule rule : rules) {
+            referencedFacts |= rule.getConditionFacts();
+        }
+        if (Integer.bitCount(referencedFacts) > MatchTable.MAX_FACTS) {
+            matchTable = null;
+            return false;
+        }
+        matchTable = new MatchTable(rules.toArray(new Rule[0]), referencedFacts);
+        if (Tracing.enabled && Log.LOG.isLoggable(Level.FINE)) {
+            Log.LOG.fine(String.format(Locale.US, "Match table for %d facts",
+                    Integer.bitCount(referencedFacts)));
+        }
+        return true;
     }
 }
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Map;
+
+/**
+ * <p>Loads a rule base from a compact line-based text definition. The loader streams the
+ * definition and builds the rules' fact bit vectors directly, without the fluent builder.</p>
+ *
+ * <p>Each line holds a single statement of whitespace-separated tokens. Empty lines and lines
+ * starting with {@code #} are ignored. Statements:</p>
+ * <ul>
+ *     <li>{@code fact <name> [persistent]} declares a fact, optionally with
+ *     {@link Fact#PERSISTENCE_DISK} persistence. Facts must be declared before use.</li>
+ *     <li>{@code rule <name> [once|reset|always]} starts a rule with match type
+ *     {@link Rule#MATCH_ONCE}, {@link Rule#MATCH_RESET}, or {@link Rule#MATCH_ALWAYS}
+ *     (the default).</li>
+ *     <li>{@code when <fact>...} adds a conjunction of facts to the current rule.</li>
+ *     <li>{@code whennot <fact>...} adds a conjunction of negated facts to the current rule.</li>
+ *     <li>{@code then <action>} binds the current rule's action by name. Every rule needs
+ *     an action.</li>
+ * </ul>
+ *
+ * <p>Example:</p>
+ * <pre>
+ * fact loggedIn persistent
+ * fact online
+ * rule sync reset
+ * when loggedIn online
+ * then startSync
+ * </pre>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class RuleBaseLoader {
+    private RuleBaseLoader() {
+    }
+
+    /**
+     * Loads a rule base from a text definition.
+     * @param reader  the definition
+     * @param actions the rule actions by name
+     * @return the new rule base
+     * @throws IOException if reading fails
+     * @throws IllegalArgumentException if the definition is malformed
+     */
+    public static @NotNull RuleBase load(
+            final Reader reader, final Map<String, ? extends RuleAction> actions)
+            throws IOException {
+        final RuleBase ruleBase = new RuleBase();
+        final BufferedReader lineReader = reader instanceof BufferedReader
+                ? (BufferedReader) reader : new BufferedReader(reader);
+        final String[] tokens = new String[RuleBase.MAX_FACTS + 1];
+        Rule rule = null;
+        int lineNumber = 0;
+        String line;
+        while ((line = lineReader.readLine()) != null) {
+            ++lineNumber;
+            final int tokenCount = tokenize(line, tokens, lineNumber);
+            if (tokenCount == 0) {
+                continue;
+            }
+            switch (tokens[0]) {
+                case "fact":
+                    if (tokenCount == 2) {
+                        addFact(ruleBase, tokens[1], Fact.PERSISTENCE_NONE, lineNumber);
+                    } else if (tokenCount == 3 && tokens[2].equals("persistent")) {
+                        addFact(ruleBase, tokens[1], Fact.PERSISTENCE_DISK, lineNumber);
+                    } else {
+                        throw error(lineNumber, "Expected: fact <name> [persistent]");
+                    }
+                    break;
+                case "rule":
+                    checkRuleAction(rule, lineNumber);
+                    if (tokenCount < 2 || tokenCount > 3) {
+                        throw error(lineNumber, "Expected: rule <name> [once|reset|always]");
+                    }
+                    if (ruleBase.rules.size() >= RuleBase.MAX_RULES) {
+                        throw error(lineNumber, "Too many rules");
+                    }
+                    rule = new Rule(tokens[1], tokenCount == 3
+                            ? matchType(tokens[2], lineNumber) : Rule.MATCH_ALWAYS);
+                    ruleBase.addRule(rule);
+                    break;
+                case "when":
+                    checkRule(rule, lineNumber).addCondition(
+                            factVector(ruleBase, tokens, tokenCount, lineNumber));
+                    break;
+                case "whennot":
+                    checkRule(rule, lineNumber).addNegCondition(
+                            factVector(ruleBase, tokens, tokenCount, lineNumber));
+                    break;
+                case "then":
+                    checkRule(rule, lineNumber);
+                    if (tokenCount != 2) {
+                        throw error(lineNumber, "Expected: then <action>");
+                    }
+                    if (rule.ruleAction != null) {
+                        throw error(lineNumber, "Duplicate action for rule " + rule);
+                    }
+                    final RuleAction ruleAction = actions.get(tokens[1]);
+                    if (ruleAction == null) {
+                        throw error(lineNumber, "Unknown action: " + tokens[1]);
+                    }
+                    rule.setRuleAction(ruleAction);
+                    break;
+                default:
+                    throw error(lineNumber, "Unknown statement: " + tokens[0]);
+            }
+        }
+        checkRuleAction(rule, lineNumber);
+        return ruleBase;
+    }
+
+    /**
+     * Splits a line into whitespace-separated tokens.
+     * @return the number of tokens
+     */
+    private static int tokenize(final String line, final String[] tokens, final int lineNumber) {
+        final int length = line.length();
+        int tokenCount = 0;
+        int i = 0;
+        while (true) {
+            while (i < length && Character.isWhitespace(line.charAt(i))) {
+                ++i;
+            }
+            if (i == length || tokenCount == 0 && line.charAt(i) == '#') {
+                return tokenCount;
+            }
+            final int start = i;
+            while (i < length && !Character.isWhitespace(line.charAt(i))) {
+                ++i;
+            }
+            if (tokenCount == tokens.length) {
+                throw error(lineNumber, "Too many tokens");
+            }
+            tokens[tokenCount++] = line.substring(start, i);
+        }
+    }
+
+    private static void addFact(final RuleBase ruleBase, final String name,
+                                @Fact.Persistence final int persistence, final int lineNumber) {
+        if (ruleBase.findFact(name) != null) {
+            throw error(lineNumber, "Duplicate fact: " + name);
+        }
+        if (ruleBase.getFactCount() >= RuleBase.MAX_FACTS) {
+            throw error(lineNumber, "Too many facts");
+        }
+        ruleBase.newFact(name, persistence);
+    }
+
+    @Rule.MatchType
+    private static int matchType(final String token, final int lineNumber) {
+        switch (token) {
+            case "once":
+                return Rule.MATCH_ONCE;
+            case "reset":
+                return Rule.MATCH_RESET;
+            case "always":
+                return Rule.MATCH_ALWAYS;
+            default:
+                throw error(lineNumber, "Unknown match type: " + token);
+        }
+    }
+
+    private static int factVector(final RuleBase ruleBase, final String[] tokens,
+                                  final int tokenCount, final int lineNumber) {
+        if (tokenCount < 2) {
+            throw error(lineNumber, "Expected at least one fact");
+        }
+        int factVector = 0;
+        for (int i = 1; i < tokenCount; ++i) {
+            final Fact fact = ruleBase.findFact(tokens[i]);
+            if (fact == null) {
+                throw error(lineNumber, "Unknown fact: " + tokens[i]);
+            }
+            factVector |= 1 << fact.id;
+        }
+        return factVector;
+    }
+
+    private static Rule checkRule(final Rule rule, final int lineNumber) {
+        if (rule == null) {
+            throw error(lineNumber, "No current rule");
+        }
+        return rule;
+    }
+
+    private static void checkRuleAction(final Rule rule, final int lineNumber) {
+        if (rule != null && rule.ruleAction == null) {
+            throw error(lineNumber, "Missing action for rule " + rule);
+        }
+    }
+
+    private static IllegalArgumentException error(final int lineNumber, final String message) {
+        return new IllegalArgumentException("Line " + lineNumber + ": " + message);
+    }
+}
@@ -17,7 +17,12 @@
 
 package org.bubenheimer.rulez;
 
+import org.jetbrains.annotations.NotNull;
+
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -26,7 +31,12 @@ import java.util.logging.Logger;
  */
 @SuppressWarnings("WeakerAccess")
 public abstract class RuleEngine {
-    private static final Logger LOG = Logger.getLogger(RuleEngine.class.getName());
+    /**
+     * Holds the logger, so that it is only looked up once {@link Tracing} is enabled.
+     */
+    private static final class Log {
+        static final Logger LOG = Logger.getLogger(RuleEngine.class.getName());
+    }
 
     /**
      * The fact state (bit vector).
@@ -38,11 +48,41 @@ public abstract class RuleEngine {
      */
     private EvalEndListener evalEndListener;
 
+    /**
+     * Registry of listeners for changes of specific facts. Created on demand.
+     */
+    private FactChangeRegistry factChangeRegistry;
+
+    /**
+     * Publisher of state changes. May be null.
+     */
+    private StateChangePublisher stateChangePublisher;
+
+    /**
+     * The replicator recording the state at the end of each evaluation. May be null.
+     */
+    FactStateReplicator replicator;
+
+    /**
+     * The session ID under which {@link #replicator} records the state.
+     */
+    int replicationSession;
+
     /**
      * A weak reference to the rule base.
      */
     private WeakReference<RuleBase> ruleBaseRef = new WeakReference<>(null);
 
+    /**
+     * A rule base to be swapped in between evaluation passes. May be set from any thread.
+     */
+    private final AtomicReference<RuleBase> pendingRuleBase = new AtomicReference<>();
+
+    /**
+     * The number of rule base swaps performed.
+     */
+    private int ruleBaseVersion = 0;
+
     /**
      * @return the fact state (what's true and what's false)
      */
@@ -83,6 +123,38 @@ public abstract class RuleEngine {
         evalEndListener = listener;
     }
 
+    /**
+     * @return the registry of listeners to be invoked when rule evaluation ends and facts of
+     * interest have changed. Created on first use.
+     */
+    @SuppressWarnings("unused")
+    public final FactChangeRegistry getFactChangeRegistry() {
+        if (factChangeRegistry == null) {
+            factChangeRegistry = new FactChangeRegistry(this);
+        }
+        return factChangeRegistry;
+    }
+
+    /**
+     * @return the publisher of state changes at the end of rule evaluation. May be null.
+     */
+    @SuppressWarnings("unused")
+    public final StateChangePublisher getStateChangePublisher() {
+        return stateChangePublisher;
+    }
+
+    /**
+     * @param publisher the publisher of state changes at the end of rule evaluation.
+     *                  May be null.
+     */
+    @SuppressWarnings("unused")
+    public final void setStateChangePublisher(final StateChangePublisher publisher) {
+        if (publisher != null) {
+            publisher.attach(factState.getState());
+        }
+        stateChangePublisher = publisher;
+    }
+
     /**
      * @return the rule base. May be null.
      */
@@ -96,8 +168,12 @@ public abstract class RuleEngine {
      * it needs to be completely initialized.
      *
      * @param ruleBase the rule base. May be {@code null}.
+     * @throws IllegalArgumentException if the rule engine does not support the rule base
      */
     public void setRuleBase(final RuleBase ruleBase) {
+        if (ruleBase != null) {
+            checkRuleBase(ruleBase);
+        }
         ruleBaseRef = new WeakReference<>(ruleBase);
         if (ruleBase != null) {
             final PersistenceStore persistenceStore = ruleBase.persistenceStore;
@@ -117,19 +193,246 @@ public abstract class RuleEngine {
         }
     }
 
+    /**
+     * <p>Requests to replace the rule base with an updated version without resetting the
+     * rule engine state. Safe to call from any thread. The new rule base is installed between
+     * evaluation passes on the rule engine's thread, at the latest by
+     * {@link #applyRuleBaseSwap()}. If several swaps are requested before installation,
+     * only the last one takes effect.</p>
+     *
+     * <p>On installation, fact state is migrated by fact name: facts unknown to the new
+     * rule base are dropped, and new persistent facts are restored from the persistence store.
+     * Counter values are migrated by counter name, and threshold facts follow the migrated values.
+     * Subclasses migrate their rule match state in {@link #onRuleBaseSwap(RuleBase, RuleBase)}.
+     * Fact bit vectors held elsewhere, such as {@link FactSet}s and {@link FactChangeRegistry}
+     * subscriptions, are not migrated.</p>
+     *
+     * @param ruleBase the completely initialized new rule base
+     * @throws IllegalArgumentException if the rule engine does not support the rule base
+     */
+    @SuppressWarnings("unused")
+    public final void swapRuleBase(@NotNull final RuleBase ruleBase) {
+        checkRuleBase(ruleBase);
+        pendingRuleBase.set(ruleBase);
+    }
+
+    /**
+     * Checks whether the rule engine supports a rule base before it is set or swapped in, so that
+     * unsupported features fail up front rather than during evaluation.
+     * @param ruleBase the rule base
+     * @throws IllegalArgumentException if the rule engine does not support the rule base
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected void checkRuleBase(@NotNull final RuleBase ruleBase) {
+    }
+
+    /**
+     * Installs a rule base requested via {@link #swapRuleBase(RuleBase)}, if any, and evaluates
+     * the new rule base. To be called on the rule engine's thread.
+     */
+    @SuppressWarnings("unused")
+    public final void applyRuleBaseSwap() {
+        if (pendingRuleBase.get() != null) {
+            scheduleEvaluation();
+        }
+    }
+
+    /**
+     * @return the number of rule base swaps performed by this rule engine
+     */
+    @SuppressWarnings("unused")
+    public final int getRuleBaseVersion() {
+        return ruleBaseVersion;
+    }
+
+    /**
+     * To be called by subclasses between evaluation passes to install a rule base requested via
+     * {@link #swapRuleBase(RuleBase)}.
+     * @return whether a new rule base was installed
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected final boolean installPendingRuleBase() {
+        final RuleBase newRuleBase = pendingRuleBase.getAndSet(null);
+        if (newRuleBase == null) {
+            return false;
+        }
+        final RuleBase oldRuleBase = ruleBaseRef.get();
+        // Shared facts come from the SharedFactDomain and are not part of the migrated local state
+        int state = factState.getLocalState();
+        int lastNotifiedState = factChangeRegistry == null ? 0 : factChangeRegistry.lastState;
+        if (oldRuleBase != null) {
+            state = migrateFactState(oldRuleBase, newRuleBase, state);
+            lastNotifiedState = migrateFactState(oldRuleBase, newRuleBase, lastNotifiedState);
+        }
+        final PersistenceStore persistenceStore = newRuleBase.persistenceStore;
+        if (persistenceStore != null) {
+            final int factCount = newRuleBase.getFactCount();
+            for (int i = 0; i < factCount; ++i) {
+                final Fact fact = newRuleBase.facts[i];
+                if (fact.persistence == Fact.PERSISTENCE_DISK
+                        && (oldRuleBase == null || oldRuleBase.findFact(fact.name) == null)
+                        && persistenceStore.get(fact.id, fact.name)) {
+                    state |= 1 << fact.id;
+                }
+            }
+        }
+        state = factState.migrateCounters(oldRuleBase, newRuleBase, state);
+        ruleBaseRef = new WeakReference<>(newRuleBase);
+        factState.setState(state);
+        if (factChangeRegistry != null) {
+            factChangeRegistry.lastState = lastNotifiedState;
+        }
+        onRuleBaseSwap(oldRuleBase, newRuleBase);
+        ++ruleBaseVersion;
+        if (Tracing.enabled && Log.LOG.isLoggable(Level.FINE)) {
+            Log.LOG.fine("Rule base swapped, version " + ruleBaseVersion + ": "
+                    + formatState(state));
+        }
+        return true;
+    }
+
+    /**
+     * Invoked when a rule base requested via {@link #swapRuleBase(RuleBase)} has been installed
+     * and fact state has been migrated. Subclasses migrate their rule match state here.
+     * @param oldRuleBase the previous rule base. May be {@code null}.
+     * @param newRuleBase the new rule base
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected void onRuleBaseSwap(final RuleBase oldRuleBase, final RuleBase newRuleBase) {
+    }
+
+    /**
+     * Maps a fact state from one rule base to another by fact name.
+     * @param oldRuleBase the rule base of the fact state
+     * @param newRuleBase the rule base to map to
+     * @param state       the fact state
+     * @return the mapped fact state
+     */
+    private static int migrateFactState(
+            final RuleBase oldRuleBase, final RuleBase newRuleBase, final int state) {
+        int newState = 0;
+        for (int bits = state; bits != 0; bits &= bits - 1) {
+            final Fact oldFact = oldRuleBase.facts[Integer.numberOfTrailingZeros(bits)];
+            if (oldFact != null) {
+                final Fact newFact = newRuleBase.findFact(oldFact.name);
+                if (newFact != null) {
+                    newState |= 1 << newFact.id;
+                }
+            }
+        }
+        return newState;
+    }
+
+    /**
+     * Explains whether a rule would fire in the next evaluation pass given the current state,
+     * and if not, why not. Intended for diagnostics, not for performance-critical operations.
+     * @param rule a rule of the rule base
+     * @return the explanation
+     */
+    @SuppressWarnings("unused")
+    public final @NotNull RuleExplanation explain(final Rule rule) {
+        final RuleBase ruleBase = ruleBaseRef.get();
+        final int ruleIndex = ruleBase == null ? -1 : ruleBase.rules.indexOf(rule);
+        if (ruleIndex < 0) {
+            throw new IllegalArgumentException("Rule not in rule base: " + rule);
+        }
+        return new RuleExplanation(rule, ruleIndex, factState.getState(), getRuleMatchState());
+    }
+
+    /**
+     * Explains all rules that would not fire in the next evaluation pass given the current state.
+     * Intended for diagnostics, not for performance-critical operations.
+     * @return the explanations in rule order
+     */
+    @SuppressWarnings("unused")
+    public final @NotNull List<RuleExplanation> explainAll() {
+        final ArrayList<RuleExplanation> explanations = new ArrayList<>();
+        final RuleBase ruleBase = ruleBaseRef.get();
+        if (ruleBase == null) {
+            return explanations;
+        }
+        final int state = factState.getState();
+        final int ruleMatchState = getRuleMatchState();
+        final int ruleCount = ruleBase.rules.size();
+        for (int i = 0; i < ruleCount; ++i) {
+            final RuleExplanation explanation =
+                    new RuleExplanation(ruleBase.rules.get(i), i, state, ruleMatchState);
+            if (!explanation.wouldFire()) {
+                explanations.add(explanation);
+            }
+        }
+        return explanations;
+    }
+
+    /**
+     * @return a bit mask for the match state of all rules, indicating whether a rule has already
+     * fired, if tracked by the evaluation strategy; {@code 0} otherwise
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected int getRuleMatchState() {
+        return 0;
+    }
+
     /**
      * Schedules a rule evaluation step.
      */
     protected abstract void scheduleEvaluation();
 
+    /**
+     * @return whether the rule base is currently being evaluated, if tracked by the evaluation
+     * strategy; {@code false} otherwise
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected boolean isEvaluating() {
+        return false;
+    }
+
+    /**
+     * Records counter values changed without an evaluation, which would otherwise record them at
+     * its end.
+     */
+    void counterValuesChanged() {
+        if (replicator != null && !isEvaluating()) {
+            replicator.record(replicationSession, factState.getLocalState(), getRuleMatchState(),
+                    factState.getCounterValues());
+        }
+    }
+
     /**
      * To be called by subclasses at the end of a rule evaluation step to notify the rule engine
      * when evaluation has concluded.
      */
     @SuppressWarnings("WeakerAccess")
     protected final void handleEvaluationEnd() {
-        if (LOG.isLoggable(Level.FINE)) {
-            LOG.fine("Evaluation ended: " + formatState(factState.getState()));
+        handleEvaluationEnd(0);
+    }
+
+    /**
+     * To be called by subclasses at the end of a rule evaluation step to notify the rule engine
+     * when evaluation has concluded.
+     * @param firedRules the bit vector of rules fired during the evaluation step
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected final void handleEvaluationEnd(final int firedRules) {
+        if (Tracing.enabled && Log.LOG.isLoggable(Level.FINE)) {
+            Log.LOG.fine("Evaluation ended: " + formatState(factState.getState()));
+        }
+
+        if (factState.populationIndex != null) {
+            factState.populationIndex.rulesFired(firedRules);
+        }
+
+        if (replicator != null) {
+            replicator.record(replicationSession, factState.getLocalState(), getRuleMatchState(),
+                    factState.getCounterValues());
+        }
+
+        if (stateChangePublisher != null) {
+            stateChangePublisher.publish(factState.getState(), firedRules);
+        }
+
+        if (factChangeRegistry != null) {
+            factChangeRegistry.dispatch(factState.getState());
         }
 
         if (evalEndListener != null) {
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Runs a rule engine session as a lightweight actor. Callers on any thread submit fact
+ * changes to a bounded lock-free mailbox. A drain task on the given {@link Executor} applies
+ * all pending changes as a single coalesced state change, so that a burst of changes costs
+ * a single evaluation.</p>
+ *
+ * <p>At most one drain task per actor is scheduled at any time, and it only runs while there are
+ * pending changes, so an executor can serve very large numbers of mostly idle actors. On Java 21+
+ * an executor creating a virtual thread per task is a natural choice.</p>
+ *
+ * <p>The rule engine is confined to the drain task and must not be accessed directly once
+ * the actor has been created. Listeners registered with the rule engine are invoked on the drain
+ * task.</p>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class RuleEngineActor {
+    /**
+     * Time to park between attempts when {@link #submit(int, int)} waits for mailbox space.
+     */
+    private static final long BACKOFF_NANOS = 50_000L;
+
+    /**
+     * The confined rule engine.
+     */
+    private final RuleEngine ruleEngine;
+
+    /**
+     * The executor running drain tasks.
+     */
+    private final Executor executor;
+
+    /**
+     * The pending fact changes.
+     */
+    private final FactChangeMailbox mailbox;
+
+    /**
+     * Whether a drain task is scheduled or running.
+     */
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    /**
+     * The fact state as of the end of the last drain.
+     */
+    private volatile int state;
+
+    /**
+     * Drains the mailbox.
+     */
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * @param ruleEngine      the rule engine with its rule base set. Confined to the actor from
+     *                        now on.
+     * @param mailboxCapacity the maximum number of pending fact changes
+     * @param executor        the executor to run drain tasks
+     */
+    public RuleEngineActor(
+            final RuleEngine ruleEngine, final int mailboxCapacity, final Executor executor) {
+        this.ruleEngine = ruleEngine;
+        this.executor = executor;
+        mailbox = new FactChangeMailbox(mailboxCapacity);
+        state = ruleEngine.getFactState().getState();
+    }
+
+    /**
+     * @return the fact state as of the end of the last coalesced state change. Safe to call from
+     * any thread.
+     */
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * Submits a fact change if there is space in the mailbox. Safe to call from any thread.
+     * @param addFactVector      the facts to add
+     * @param removeFactVector   the facts to remove
+     * @return whether the change was accepted; {@code false} if the mailbox is full
+     * @throws IllegalArgumentException if more than one fact of an exclusive group is added
+     */
+    public boolean offer(final int addFactVector, final int removeFactVector) {
+        // Reject invalid changes here, as the drain task cannot report them to the caller
+        exclusiveRemovals(addFactVector);
+        if (!mailbox.offer(FactChangeMailbox.command(addFactVector, removeFactVector))) {
+            return false;
+        }
+        scheduleDrain();
+        return true;
+    }
+
+    /**
+     * Submits a fact change if there is space in the mailbox. Safe to call from any thread.
+     * @param addFacts      the facts to add
+     * @param removeFacts   the facts to remove
+     * @return whether the change was accepted; {@code false} if the mailbox is full
+     * @throws IllegalArgumentException if more than one fact of an exclusive group is added
+     */
+    public boolean offer(final FactSet addFacts, final FactSet removeFacts) {
+        return offer(addFacts.factVector, removeFacts.factVector);
+    }
+
+    /**
+     * Submits a fact change, waiting for space in the mailbox if it is full. Safe to call from any
+     * thread other than the drain task.
+     * @param addFactVector      the facts to add
+     * @param removeFactVector   the facts to remove
+     * @throws IllegalArgumentException if more than one fact of an exclusive group is added
+     */
+    public void submit(final int addFactVector, final int removeFactVector) {
+        while (!offer(addFactVector, removeFactVector)) {
+            LockSupport.parkNanos(this, BACKOFF_NANOS);
+        }
+    }
+
+    /**
+     * Submits a fact change, waiting for space in the mailbox if it is full. Safe to call from any
+     * thread other than the drain task.
+     * @param addFacts      the facts to add
+     * @param removeFacts   the facts to remove
+     * @throws IllegalArgumentException if more than one fact of an exclusive group is added
+     */
+    public void submit(final FactSet addFacts, final FactSet removeFacts) {
+        submit(addFacts.factVector, removeFacts.factVector);
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            executor.execute(drainTask);
+        }
+    }
+
+    /**
+     * Applies all pending fact changes as a single state change until the mailbox is empty.
+     */
+    private void drain() {
+        final FactState factState = ruleEngine.getFactState();
+        try {
+            while (!mailbox.isEmpty()) {
+                // Compose changes in order: a later change to a fact overrides an earlier one
+                int addFactVector = 0;
+                int removeFactVector = 0;
+                do {
+                    final long command = mailbox.poll();
+                    final int add = FactChangeMailbox.addFactVector(command);
+                    final int remove = FactChangeMailbox.removeFactVector(command);
+                    // Adding a fact of an exclusive group removes an earlier added group member
+                    final int exclusiveRemovals = exclusiveRemovals(add);
+                    addFactVector = (addFactVector & ~exclusiveRemovals | add) & ~remove;
+                    removeFactVector = remove | exclusiveRemovals | removeFactVector & ~add;
+                } while (!mailbox.isEmpty());
+                factState.addRemoveFacts(addFactVector, removeFactVector);
+                state = factState.getState();
+            }
+        } finally {
+            drainScheduled.set(false);
+        }
+        // Catch changes submitted after the last emptiness check
+        if (!mailbox.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * @param addFactVector the facts to add
+     * @return the other members of the exclusive groups of the added facts
+     * @throws IllegalArgumentException if more than one fact of an exclusive group is added
+     */
+    private int exclusiveRemovals(final int addFactVector) {
+        final RuleBase ruleBase = ruleEngine.getRuleBase();
+        return ruleBase == null ? 0 : ruleBase.exclusiveRemovals(addFactVector);
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+import java.util.Arrays;
+
+/**
+ * Explains whether a rule would fire for a given fact state and rule match state, and if not,
+ * why not. Obtain it via {@link RuleEngine#explain(Rule)} or {@link RuleEngine#explainAll()}.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class RuleExplanation {
+    private static final int[] NONE = new int[0];
+
+    /**
+     * The explained rule
+     */
+    private final Rule rule;
+
+    /**
+     * The rule's index in the rule base
+     */
+    private final int ruleIndex;
+
+    /**
+     * Whether the rule has already fired and is not eligible to fire again
+     */
+    private final boolean alreadyFired;
+
+    /**
+     * Facts of the rule's conjunctions or module gate that are false
+     */
+    private final int missingFacts;
+
+    /**
+     * The rule's negated conjunctions whose facts are all true
+     */
+    private final int[] violatedNegConditions;
+
+    /**
+     * Whether the rule has boolean expressions, none of whose terms match
+     */
+    private final boolean termsViolated;
+
+    /**
+     * For the best matching term: facts that should be true, but are false
+     */
+    private final int termMissingFacts;
+
+    /**
+     * For the best matching term: facts that should be false, but are true
+     */
+    private final int termForbiddenFacts;
+
+    /**
+     * Explains a rule.
+     * @param rule           the rule
+     * @param ruleIndex      the rule's index in the rule base
+     * @param state          the fact state
+     * @param ruleMatchState the rule match state
+     */
+    RuleExplanation(
+            final Rule rule, final int ruleIndex, final int state, final int ruleMatchState) {
+        this.rule = rule;
+        this.ruleIndex = ruleIndex;
+        alreadyFired = rule.matchType != Rule.MATCH_ALWAYS
+                && (ruleMatchState & 1 << ruleIndex) != 0;
+        int missing = rule.gate & ~state;
+        for (final int condition : rule.conditions) {
+            missing |= condition & ~state;
+        }
+        missingFacts = missing;
+        int[] violated = NONE;
+        for (final int negCondition : rule.negConditions) {
+            if ((state & negCondition) == negCondition) {
+                violated = Arrays.copyOf(violated, violated.length + 1);
+                violated[violated.length - 1] = negCondition;
+            }
+        }
+        violatedNegConditions = violated;
+        final int[] terms = rule.terms;
+        int bestMissing = 0;
+        int bestForbidden = 0;
+        boolean termMatches = terms == null;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; terms != null && i < terms.length; i += 2) {
+            final int termMissing = terms[i] & ~state;
+            final int termForbidden = terms[i + 1] & state;
+            final int distance = Integer.bitCount(termMissing) + Integer.bitCount(termForbidden);
+            if (distance == 0) {
+                termMatches = true;
+                break;
+            }
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                bestMissing = termMissing;
+                bestForbidden = termForbidden;
+            }
+        }
+        termsViolated = !termMatches;
+        termMissingFacts = termMatches ? 0 : bestMissing;
+        termForbiddenFacts = termMatches ? 0 : bestForbidden;
+    }
+
+    /**
+     * @return the explained rule
+     */
+    public Rule getRule() {
+        return rule;
+    }
+
+    /**
+     * @return the rule's index in the rule base
+     */
+    public int getRuleIndex() {
+        return ruleIndex;
+    }
+
+    /**
+     * @return whether the rule's left-hand side matches the fact state
+     */
+    public boolean matches() {
+        return missingFacts == 0 && violatedNegConditions.length == 0 && !termsViolated;
+    }
+
+    /**
+     * @return whether the rule has already fired and is not eligible to fire again (yet)
+     */
+    public boolean isAlreadyFired() {
+        return alreadyFired;
+    }
+
+    /**
+     * @return whether the rule would fire in the next evaluation pass
+     */
+    public boolean wouldFire() {
+        return matches() && !alreadyFired;
+    }
+
+    /**
+     * @return the bit vector of facts required by the rule's conjunctions or module gate that
+     * are false
+     */
+    public int getMissingFacts() {
+        return missingFacts;
+    }
+
+    /**
+     * @return the rule's negated conjunctions whose facts are all true, as fact bit vectors
+     */
+    public int[] getViolatedNegConditions() {
+        return violatedNegConditions.clone();
+    }
+
+    /**
+     * @return whether the rule has boolean expressions (see {@link Condition}), and none of the
+     * compiled terms matches
+     */
+    public boolean isTermsViolated() {
+        return termsViolated;
+    }
+
+    /**
+     * @return for the compiled term of the rule's boolean expressions closest to matching:
+     * the bit vector of facts that need to be true, but are false
+     */
+    public int getTermMissingFacts() {
+        return termMissingFacts;
+    }
+
+    /**
+     * @return for the compiled term of the rule's boolean expressions closest to matching:
+     * the bit vector of facts that need to be false, but are true
+     */
+    public int getTermForbiddenFacts() {
+        return termForbiddenFacts;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder(rule.toString());
+        if (wouldFire()) {
+            return builder.append(": would fire").toString();
+        }
+        String separator = ": ";
+        if (alreadyFired) {
+            builder.append(separator).append("already fired");
+            separator = ", ";
+        }
+        if (missingFacts != 0) {
+            builder.append(separator).append("missing ")
+                    .append(RuleEngine.formatState(missingFacts));
+            separator = ", ";
+        }
+        for (final int negCondition : violatedNegConditions) {
+            builder.append(separator).append("violated not ")
+                    .append(RuleEngine.formatState(negCondition));
+            separator = ", ";
+        }
+        if (termsViolated) {
+            builder.append(separator).append("closest term missing ")
+                    .append(RuleEngine.formatState(termMissingFacts))
+                    .append(" forbidden ").append(RuleEngine.formatState(termForbiddenFacts));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+import org.bubenheimer.rulez.fluent.Proposition;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A group of rules within a rule base that is only evaluated while its gating facts are all
+ * true. Create it via {@link RuleBase#module(Fact...)}. Modules may be nested; a nested module
+ * is gated by its own facts and those of all enclosing modules.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class RuleModule {
+    private final RuleBase ruleBase;
+
+    /**
+     * The module index in the rule base
+     */
+    private final int index;
+
+    RuleModule(final RuleBase ruleBase, final int index) {
+        this.ruleBase = ruleBase;
+        this.index = index;
+    }
+
+    /**
+     * @return the bit vector of the module's gating facts, including enclosing modules' facts
+     */
+    @SuppressWarnings("unused")
+    public int getGate() {
+        return ruleBase.moduleGates[index];
+    }
+
+    /**
+     * Create a rule in the module via a fluent builder pattern with a default match type of
+     * {@link Rule#MATCH_ALWAYS}.
+     *
+     * @param name rule name
+     * @return a builder instance
+     */
+    @SuppressWarnings("unused")
+    public @NotNull Proposition rule(final String name) {
+        return rule(name, Rule.MATCH_ALWAYS);
+    }
+
+    /**
+     * Create a rule in the module via a fluent builder pattern.
+     * @param name         rule name
+     * @param matchType    rule match type
+     * @return a builder instance
+     */
+    public @NotNull Proposition rule(final String name, @Rule.MatchType final int matchType) {
+        final Rule rule = new Rule(name, matchType);
+        ruleBase.addRule(rule, index);
+        return new Proposition(rule);
+    }
+
+    /**
+     * Create a nested module.
+     * @param gate the nested module's additional gating facts
+     * @return the nested module
+     */
+    @SuppressWarnings("unused")
+    public @NotNull RuleModule module(final Fact... gate) {
+        return ruleBase.newModule(getGate(), gate);
+    }
+}
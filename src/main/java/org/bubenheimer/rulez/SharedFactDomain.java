@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>A set of global facts, such as "network available", shared by many rule engines. The shared
+ * facts' values live in the domain and are overlaid onto the {@link FactState} of each registered
+ * rule engine, so that {@link #broadcast(int, int, Executor)} changes them for all rule engines
+ * at once. Only rule engines whose rules reference a changed fact are evaluated.</p>
+ *
+ * <p>The shared facts must have the same fact IDs in the rule bases of all registered rule
+ * engines. Shared facts cannot be changed via a rule engine's fact state; such changes are
+ * ignored.</p>
+ *
+ * <p>Registration and broadcasts are thread-safe. A broadcast evaluates rule engines on the
+ * broadcasting thread and the given executor, so registered rule engines must not be in use by
+ * other threads during a broadcast.</p>
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class SharedFactDomain {
+    /**
+     * The number of rule engines evaluated per task during a broadcast.
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * The bit vector of shared facts.
+     */
+    final int factMask;
+
+    /**
+     * The state of the shared facts.
+     */
+    volatile int state = 0;
+
+    /**
+     * The registered rule engines. Guarded by {@code this}.
+     */
+    private final ArrayList<RuleEngine> ruleEngines = new ArrayList<>();
+
+    /**
+     * @param facts the shared facts
+     */
+    public SharedFactDomain(final FactSet facts) {
+        factMask = facts.factVector;
+    }
+
+    /**
+     * @return the state of the shared facts
+     */
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * Registers a rule engine. Its fact state reflects the shared facts from now on. To be called
+     * before the rule engine is in use by other threads.
+     * @param ruleEngine the rule engine
+     */
+    public synchronized void register(final RuleEngine ruleEngine) {
+        final FactState factState = ruleEngine.getFactState();
+        if (factState.sharedFactDomain != null) {
+            throw new IllegalStateException("Rule engine already registered with a domain");
+        }
+        factState.sharedFactDomain = this;
+        ruleEngines.add(ruleEngine);
+    }
+
+    /**
+     * Unregisters a rule engine. Its fact state no longer reflects the shared facts. To be called
+     * while the rule engine is not in use by other threads.
+     * @param ruleEngine the rule engine
+     */
+    public synchronized void unregister(final RuleEngine ruleEngine) {
+        if (ruleEngines.remove(ruleEngine)) {
+            ruleEngine.getFactState().sharedFactDomain = null;
+        }
+    }
+
+    /**
+     * Changes shared facts and evaluates the rule engines referencing them, waiting for
+     * completion.
+     * @param addFacts    the facts to add
+     * @param removeFacts the facts to remove
+     * @param executor    the executor to evaluate batches of rule engines on
+     */
+    public void broadcast(
+            final FactSet addFacts, final FactSet removeFacts, final Executor executor) {
+        broadcast(addFacts.factVector, removeFacts.factVector, executor);
+    }
+
+    /**
+     * Changes shared facts and evaluates the rule engines referencing them, waiting for
+     * completion. Broadcasts are serialized.
+     * @param addFactVector    the facts to add
+     * @param removeFactVector the facts to remove
+     * @param executor         the executor to evaluate batches of rule engines on
+     */
+    public synchronized void broadcast(
+            final int addFactVector, final int removeFactVector, final Executor executor) {
+        if (((addFactVector | removeFactVector) & ~factMask) != 0) {
+            throw new IllegalArgumentException("Not a shared fact: "
+                    + RuleEngine.formatState((addFactVector | removeFactVector) & ~factMask));
+        }
+        final int oldState = state;
+        final int newState = (oldState | addFactVector) & ~removeFactVector;
+        final int changed = oldState ^ newState;
+        if (changed == 0) {
+            return;
+        }
+        state = newState;
+
+        final RuleEngine[] affected = affectedRuleEngines(changed);
+        final int batchCount = (affected.length + BATCH_SIZE - 1) / BATCH_SIZE;
+        if (batchCount == 0) {
+            return;
+        }
+        final CountDownLatch done = new CountDownLatch(batchCount - 1);
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        for (int i = 1; i < batchCount; ++i) {
+            final int start = i * BATCH_SIZE;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        evaluate(affected, start);
+                    } catch (final RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        evaluate(affected, 0);
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        final RuntimeException e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    /**
+     * @param changed the bit vector of changed shared facts
+     * @return the registered rule engines whose rules reference a changed fact
+     */
+    private RuleEngine[] affectedRuleEngines(final int changed) {
+        final ArrayList<RuleEngine> affected = new ArrayList<>();
+        RuleBase lastRuleBase = null;
+        int referencedFacts = 0;
+        for (final RuleEngine ruleEngine : ruleEngines) {
+            final RuleBase ruleBase = ruleEngine.getRuleBase();
+            if (ruleBase == null) {
+                continue;
+            }
+            // Rule engines typically share few rule bases
+            if (ruleBase != lastRuleBase) {
+                lastRuleBase = ruleBase;
+                referencedFacts = 0;
+                for (final Rule rule : ruleBase.rules) {
+                    referencedFacts |= rule.getReferencedFacts();
+                }
+            }
+            if ((referencedFacts & changed) != 0) {
+                affected.add(ruleEngine);
+            }
+        }
+        return affected.toArray(new RuleEngine[0]);
+    }
+
+    /**
+     * Evaluates a batch of rule engines.
+     * @param ruleEngines the rule engines
+     * @param start       the index of the batch's first rule engine
+     */
+    private static void evaluate(final RuleEngine[] ruleEngines, final int start) {
+        final int end = Math.min(start + BATCH_SIZE, ruleEngines.length);
+        for (int i = start; i < end; ++i) {
+            ruleEngines[i].getFactState().sharedStateChanged();
+        }
+    }
+}
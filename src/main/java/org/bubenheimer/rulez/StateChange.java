@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+/**
+ * An immutable state change event published by a {@link StateChangePublisher}. Consecutive
+ * events may be conflated into one.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class StateChange {
+    /**
+     * The raw fact state before the change
+     */
+    private final int oldState;
+
+    /**
+     * The raw fact state after the change
+     */
+    private final int newState;
+
+    /**
+     * The bit vector of rules fired during the change
+     */
+    private final int firedRules;
+
+    StateChange(final int oldState, final int newState, final int firedRules) {
+        this.oldState = oldState;
+        this.newState = newState;
+        this.firedRules = firedRules;
+    }
+
+    /**
+     * @return the raw fact state before the change
+     */
+    public int getOldState() {
+        return oldState;
+    }
+
+    /**
+     * @return the raw fact state after the change
+     */
+    public int getNewState() {
+        return newState;
+    }
+
+    /**
+     * @return the bit vector of rules fired during the change, by rule index. Only tracked by
+     * rule engines that support it.
+     */
+    public int getFiredRules() {
+        return firedRules;
+    }
+
+    /**
+     * @param next the subsequent change
+     * @return a single change equivalent to this change followed by the subsequent change
+     */
+    StateChange conflate(final StateChange next) {
+        return new StateChange(oldState, next.newState, firedRules | next.firedRules);
+    }
+
+    @Override
+    public String toString() {
+        return RuleEngine.formatState(oldState) + " -> " + RuleEngine.formatState(newState)
+                + " fired " + RuleEngine.formatState(firedRules);
+    }
+}
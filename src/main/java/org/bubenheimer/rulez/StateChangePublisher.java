@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>Publishes {@link StateChange}s of a rule engine to subscribers with demand-based
+ * backpressure. Attach it via {@link RuleEngine#setStateChangePublisher(StateChangePublisher)}.
+ * </p>
+ *
+ * <p>The {@link Subscriber} and {@link Subscription} contracts follow
+ * {@code java.util.concurrent.Flow}, which is not available on all supported platforms; adapting
+ * them to {@code Flow} is straightforward.</p>
+ *
+ * <p>Publishing never blocks the evaluation thread. Subscribers are signaled on the given
+ * {@link Executor}. If a subscriber has no outstanding demand, subsequent changes are conflated
+ * into a single pending change spanning from the oldest old state to the newest new state.</p>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class StateChangePublisher {
+    /**
+     * Receives state changes. Mirrors {@code java.util.concurrent.Flow.Subscriber}.
+     */
+    public interface Subscriber {
+        /**
+         * Invoked before any other method for a new subscription.
+         * @param subscription the subscription
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Invoked with the next state change, one per unit of requested demand. If it throws,
+         * the subscription is cancelled and {@link #onError(Throwable)} is invoked with the
+         * exception.
+         * @param change the state change
+         */
+        void onNext(StateChange change);
+
+        /**
+         * Invoked when the subscription fails. No other methods are invoked afterwards.
+         * @param throwable the cause
+         */
+        void onError(Throwable throwable);
+
+        /**
+         * Invoked when the publisher is closed. No other methods are invoked afterwards.
+         */
+        void onComplete();
+    }
+
+    /**
+     * Links a subscriber to the publisher. Mirrors {@code java.util.concurrent.Flow.Subscription}.
+     */
+    public interface Subscription {
+        /**
+         * Adds demand for state changes.
+         * @param n the number of additional state changes to receive. Must be positive.
+         */
+        void request(long n);
+
+        /**
+         * Cancels the subscription. Further state changes may still be received for a while.
+         */
+        void cancel();
+    }
+
+    /**
+     * The executor to signal subscribers on.
+     */
+    private final Executor executor;
+
+    /**
+     * The active subscriptions.
+     */
+    private final CopyOnWriteArrayList<SubscriptionImpl> subscriptions =
+            new CopyOnWriteArrayList<>();
+
+    /**
+     * The fact state as of the last published change. Only accessed on the evaluation thread.
+     */
+    private int lastState;
+
+    /**
+     * Whether the publisher is closed.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * @param executor the executor to signal subscribers on
+     */
+    public StateChangePublisher(final Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Adds a subscriber. {@link Subscriber#onSubscribe(Subscription)} is invoked asynchronously.
+     * @param subscriber the subscriber
+     */
+    public void subscribe(final Subscriber subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        final SubscriptionImpl subscription = new SubscriptionImpl(subscriber);
+        subscriptions.add(subscription);
+        if (closed) {
+            subscription.complete();
+        }
+        subscription.schedule();
+    }
+
+    /**
+     * Closes the publisher. Subscribers receive any pending change they have demand for,
+     * followed by {@link Subscriber#onComplete()}.
+     */
+    public void close() {
+        closed = true;
+        for (final SubscriptionImpl subscription : subscriptions) {
+            subscription.complete();
+            subscription.schedule();
+        }
+    }
+
+    /**
+     * Sets the initial fact state when attached to a rule engine.
+     * @param state the fact state
+     */
+    void attach(final int state) {
+        lastState = state;
+    }
+
+    /**
+     * Publishes a state change at the end of an evaluation.
+     * @param state      the current fact state
+     * @param firedRules the bit vector of rules fired during the evaluation
+     */
+    void publish(final int state, final int firedRules) {
+        if (state == lastState && firedRules == 0 || closed || subscriptions.isEmpty()) {
+            lastState = state;
+            return;
+        }
+        final StateChange change = new StateChange(lastState, state, firedRules);
+        lastState = state;
+        for (final SubscriptionImpl subscription : subscriptions) {
+            subscription.offer(change);
+        }
+    }
+
+    private final class SubscriptionImpl implements Subscription, Runnable {
+        private final Subscriber subscriber;
+
+        /**
+         * Outstanding demand.
+         */
+        private final AtomicLong demand = new AtomicLong();
+
+        /**
+         * The pending, possibly conflated, change.
+         */
+        private final AtomicReference<StateChange> pending = new AtomicReference<>();
+
+        /**
+         * Work-in-progress counter serializing signals to the subscriber.
+         */
+        private final AtomicInteger wip = new AtomicInteger();
+
+        /**
+         * Whether {@link Subscriber#onSubscribe(Subscription)} has been invoked. Only accessed
+         * while signaling.
+         */
+        private boolean subscribed = false;
+
+        private volatile boolean completed = false;
+
+        private volatile boolean cancelled = false;
+
+        /**
+         * Invalid demand reported via {@link #request(long)}, if any.
+         */
+        private volatile long invalidRequest = 0;
+
+        SubscriptionImpl(final Subscriber subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                invalidRequest = n;
+            } else {
+                long current;
+                long next;
+                do {
+                    current = demand.get();
+                    next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                } while (!demand.compareAndSet(current, next));
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        void offer(final StateChange change) {
+            StateChange current;
+            StateChange next;
+            do {
+                current = pending.get();
+                next = current == null ? change : current.conflate(change);
+            } while (!pending.compareAndSet(current, next));
+            schedule();
+        }
+
+        void complete() {
+            completed = true;
+        }
+
+        void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                if (!subscribed) {
+                    subscribed = true;
+                    subscriber.onSubscribe(this);
+                }
+                if (invalidRequest != 0 && !cancelled) {
+                    cancel();
+                    subscriber.onError(new IllegalArgumentException(
+                            "Non-positive request: " + invalidRequest));
+                }
+                while (!cancelled && demand.get() > 0) {
+                    final StateChange change = pending.getAndSet(null);
+                    if (change == null) {
+                        break;
+                    }
+                    if (demand.get() != Long.MAX_VALUE) {
+                        demand.decrementAndGet();
+                    }
+                    try {
+                        subscriber.onNext(change);
+                    } catch (final RuntimeException e) {
+                        cancel();
+                        subscriber.onError(e);
+                    }
+                }
+                if (completed && !cancelled && (pending.get() == null || demand.get() == 0)) {
+                    cancel();
+                    subscriber.onComplete();
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
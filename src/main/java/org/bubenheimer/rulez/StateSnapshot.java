@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+/**
+ * Represents the fact state at the start of an evaluation pass, to pass to rule actions. Like the
+ * old state {@link BreadthFirstRuleEngine} has always passed to rule actions, it reports all facts
+ * as invalid, so that all engines behave the same.
+ */
+final class StateSnapshot implements ReadableState {
+    /**
+     * the state at the start of the pass
+     */
+    int state;
+
+    /**
+     * the bit vector of rules fired since last reset by the owner
+     */
+    int firedRules;
+
+    @Override
+    public boolean isValid(final Fact fact) {
+        return false;
+    }
+}
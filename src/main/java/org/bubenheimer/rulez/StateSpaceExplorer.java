@@ -0,0 +1,452 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * <p>Exhaustively explores the states a {@link BreadthFirstRuleEngine} can reach with a given
+ * rule base. All rule actions must be {@link FactChangeAction}s, so that their effects are known
+ * up front.</p>
+ *
+ * <p>A configuration is a pair of fact state and rule match state in which evaluation has come to
+ * rest. Starting from an initial fact state, the explorer toggles each input fact of each
+ * reachable configuration and simulates the resulting evaluation, pass by pass, exactly like the
+ * rule engine. It reports the number of reachable configurations, evaluations that would never
+ * terminate because their passes cycle, and dead ends: configurations that no input change
+ * leaves.</p>
+ *
+ * <p>Configurations of a breadth-first level are explored in parallel on a {@link ForkJoinPool}.
+ * Visited configurations are tracked in an off-heap bitset with one bit per possible
+ * configuration, which limits the number of facts plus non-{@link Rule#MATCH_ALWAYS} rules to
+ * {@link #MAX_CONFIGURATION_BITS}.</p>
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class StateSpaceExplorer {
+    /**
+     * The maximum number of facts plus tracked rules, for a bitset of at most 512 MiB.
+     */
+    public static final int MAX_CONFIGURATION_BITS = 32;
+
+    /**
+     * The maximum number of examples collected per kind of finding.
+     */
+    private static final int MAX_EXAMPLES = 16;
+
+    /**
+     * The number of configurations explored per task.
+     */
+    private static final int BATCH_SIZE = 1024;
+
+    /**
+     * The outcome of an exploration. Configurations are encoded as
+     * {@code (long) ruleMatchState << 32 | factState & 0xFFFFFFFFL}.
+     */
+    public static final class Report {
+        long reachable;
+
+        long transitions;
+
+        long nonTerminating;
+
+        long deadEnds;
+
+        final LongList nonTerminatingExamples = new LongList();
+
+        final LongList deadEndExamples = new LongList();
+
+        /**
+         * @return the number of reachable configurations
+         */
+        public long getReachable() {
+            return reachable;
+        }
+
+        /**
+         * @return the number of explored input changes
+         */
+        public long getTransitions() {
+            return transitions;
+        }
+
+        /**
+         * @return the number of input changes whose evaluation would not terminate
+         */
+        public long getNonTerminating() {
+            return nonTerminating;
+        }
+
+        /**
+         * @return the number of reachable configurations that no input change leaves
+         */
+        public long getDeadEnds() {
+            return deadEnds;
+        }
+
+        /**
+         * @return some configurations, right after an input change, whose evaluation would not
+         * terminate
+         */
+        public long[] getNonTerminatingExamples() {
+            return nonTerminatingExamples.toArray();
+        }
+
+        /**
+         * @return some dead-end configurations
+         */
+        public long[] getDeadEndExamples() {
+            return deadEndExamples.toArray();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%d reachable configurations, %d transitions, %d non-terminating, %d dead ends",
+                    reachable, transitions, nonTerminating, deadEnds);
+        }
+    }
+
+    /**
+     * A growable list of longs.
+     */
+    private static final class LongList {
+        long[] values = new long[16];
+
+        int size;
+
+        void add(final long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    /**
+     * The fact state during a simulated evaluation pass.
+     */
+    private static final class SimulatedState extends AbstractWritableState {
+        private final RuleBase ruleBase;
+
+        int state;
+
+        /**
+         * whether any rule action has changed the state
+         */
+        boolean changed;
+
+        SimulatedState(final RuleBase ruleBase) {
+            this.ruleBase = ruleBase;
+        }
+
+        @Override
+        public void addRemoveFacts(final int addFactVector, final int removeFactVector) {
+            final int newState = (state | addFactVector)
+                    & ~(removeFactVector | ruleBase.exclusiveRemovals(addFactVector));
+            if (newState != state) {
+                state = newState;
+                changed = true;
+            }
+        }
+    }
+
+    /**
+     * Explores a batch of configurations of a level.
+     */
+    private final class Batch implements Callable<Batch> {
+        private final long[] configurations;
+
+        private final int start;
+
+        private final int end;
+
+        private final StateSnapshot oldState = new StateSnapshot();
+
+        private final SimulatedState newState = new SimulatedState(ruleBase);
+
+        final LongList successors = new LongList();
+
+        final Report report = new Report();
+
+        /**
+         * Set by {@link #evaluate(long)}: whether evaluation terminated
+         */
+        private boolean terminated;
+
+        Batch(final long[] configurations, final int start, final int end) {
+            this.configurations = configurations;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Batch call() {
+            for (int i = start; i < end; ++i) {
+                final long configuration = configurations[i];
+                final int state = (int) configuration;
+                final int ruleMatchState = (int) (configuration >>> 32);
+                boolean deadEnd = true;
+                for (int bits = inputs; bits != 0; bits &= bits - 1) {
+                    final int input = bits & -bits;
+                    newState.state = state;
+                    if ((state & input) == 0) {
+                        newState.addRemoveFacts(input, 0);
+                    } else {
+                        newState.addRemoveFacts(0, input);
+                    }
+                    final long changed = key(newState.state, ruleMatchState);
+                    final long successor = evaluate(changed);
+                    ++report.transitions;
+                    if (!terminated) {
+                        if (report.nonTerminating++ < MAX_EXAMPLES) {
+                            report.nonTerminatingExamples.add(changed);
+                        }
+                        deadEnd = false;
+                    } else if (successor != configuration) {
+                        successors.add(successor);
+                        deadEnd = false;
+                    }
+                }
+                if (deadEnd && report.deadEnds++ < MAX_EXAMPLES) {
+                    report.deadEndExamples.add(configuration);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Simulates evaluation until it comes to rest, detecting cycles of passes via Brent's
+         * algorithm.
+         * @param configuration the configuration after a fact change
+         * @return the configuration at rest; sets {@link #terminated}
+         */
+        long evaluate(final long configuration) {
+            long tortoise = configuration;
+            long hare = configuration;
+            int power = 1;
+            int length = 0;
+            while (true) {
+                final long next = pass(hare);
+                if (!newState.changed) {
+                    terminated = true;
+                    return next;
+                }
+                if (next == tortoise) {
+                    terminated = false;
+                    return configuration;
+                }
+                hare = next;
+                if (++length == power) {
+                    tortoise = hare;
+                    power <<= 1;
+                    length = 0;
+                }
+            }
+        }
+
+        /**
+         * Simulates a single evaluation pass.
+         * @param configuration the configuration at the start of the pass
+         * @return the configuration at the end of the pass; sets {@code newState.changed}
+         */
+        private long pass(final long configuration) {
+            oldState.state = (int) configuration;
+            oldState.firedRules = 0;
+            newState.state = oldState.state;
+            newState.changed = false;
+            final int ruleMatchState = BreadthFirstRuleEngine.evaluate(
+                    ruleBase, -1, oldState, (int) (configuration >>> 32), newState);
+            return key(newState.state, ruleMatchState & trackedRules);
+        }
+    }
+
+    private final RuleBase ruleBase;
+
+    /**
+     * The bit vector of facts changed from outside the rule engine
+     */
+    private final int inputs;
+
+    /**
+     * The bit vector of rules with match state
+     */
+    private final int trackedRules;
+
+    /**
+     * The number of facts
+     */
+    private final int factCount;
+
+    /**
+     * @param ruleBase the rule base, with only {@link FactChangeAction}s
+     * @param inputs   the facts that change from outside the rule engine
+     */
+    public StateSpaceExplorer(final RuleBase ruleBase, final FactSet inputs) {
+        for (final Rule rule : ruleBase.rules) {
+            if (!(rule.ruleAction instanceof FactChangeAction)) {
+                throw new IllegalArgumentException("Rule action not a FactChangeAction: " + rule);
+            }
+        }
+        this.ruleBase = ruleBase;
+        this.inputs = inputs.factVector;
+        trackedRules = ruleBase.onceRules | ruleBase.resetRules;
+        factCount = ruleBase.getFactCount();
+        if (factCount + Integer.bitCount(trackedRules) > MAX_CONFIGURATION_BITS) {
+            throw new IllegalArgumentException("Too many facts and tracked rules");
+        }
+    }
+
+    /**
+     * Explores the configurations reachable from an initial fact state on the common pool.
+     * @param initialState the initial fact state, as set before the first evaluation
+     * @return the report
+     */
+    public @NotNull Report explore(final int initialState) {
+        return explore(initialState, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Explores the configurations reachable from an initial fact state.
+     * @param initialState the initial fact state, as set before the first evaluation
+     * @param pool         the pool to explore on
+     * @return the report
+     */
+    public @NotNull Report explore(final int initialState, final ForkJoinPool pool) {
+        final Report report = new Report();
+        final Batch initial = new Batch(new long[0], 0, 0);
+        final long start = initial.evaluate(key(initialState, 0));
+        if (!initial.terminated) {
+            report.nonTerminating = 1;
+            report.nonTerminatingExamples.add(start);
+            return report;
+        }
+        final ByteBuffer visited =
+                ByteBuffer.allocateDirect((int) Math.max(8L, (1L << indexBits()) >>> 3));
+        visit(visited, start);
+        report.reachable = 1;
+        long[] level = { start };
+        int levelSize = 1;
+        while (levelSize > 0) {
+            final List<Batch> batches = new ArrayList<>();
+            for (int i = 0; i < levelSize; i += BATCH_SIZE) {
+                batches.add(new Batch(level, i, Math.min(i + BATCH_SIZE, levelSize)));
+            }
+            final LongList next = new LongList();
+            for (final Future<Batch> future : pool.invokeAll(batches)) {
+                final Batch batch = getResult(future);
+                merge(report, batch.report);
+                for (int i = 0; i < batch.successors.size; ++i) {
+                    final long successor = batch.successors.values[i];
+                    if (visit(visited, successor)) {
+                        ++report.reachable;
+                        next.add(successor);
+                    }
+                }
+            }
+            level = next.values;
+            levelSize = next.size;
+        }
+        return report;
+    }
+
+    private static Batch getResult(final Future<Batch> future) {
+        try {
+            return future.get();
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void merge(final Report report, final Report batchReport) {
+        report.transitions += batchReport.transitions;
+        for (int i = 0; i < batchReport.nonTerminatingExamples.size
+                && report.nonTerminatingExamples.size < MAX_EXAMPLES; ++i) {
+            report.nonTerminatingExamples.add(batchReport.nonTerminatingExamples.values[i]);
+        }
+        report.nonTerminating += batchReport.nonTerminating;
+        for (int i = 0; i < batchReport.deadEndExamples.size
+                && report.deadEndExamples.size < MAX_EXAMPLES; ++i) {
+            report.deadEndExamples.add(batchReport.deadEndExamples.values[i]);
+        }
+        report.deadEnds += batchReport.deadEnds;
+    }
+
+    /**
+     * Marks a configuration as visited.
+     * @param visited       the bitset
+     * @param configuration the configuration
+     * @return whether the configuration had not been visited before
+     */
+    private boolean visit(final ByteBuffer visited, final long configuration) {
+        final long index = index(configuration);
+        final int byteIndex = (int) (index >>> 3);
+        final byte bits = visited.get(byteIndex);
+        final int bit = 1 << (index & 7);
+        if ((bits & bit) != 0) {
+            return false;
+        }
+        visited.put(byteIndex, (byte) (bits | bit));
+        return true;
+    }
+
+    /**
+     * @param configuration the configuration
+     * @return the configuration's bit index in the visited bitset: the fact state, followed by the
+     * match state of tracked rules
+     */
+    private long index(final long configuration) {
+        long index = (int) configuration & (factCount == 32 ? 0xFFFFFFFFL : (1L << factCount) - 1);
+        final int ruleMatchState = (int) (configuration >>> 32);
+        int shift = factCount;
+        for (int bits = trackedRules; bits != 0; bits &= bits - 1, ++shift) {
+            if ((ruleMatchState & bits & -bits) != 0) {
+                index |= 1L << shift;
+            }
+        }
+        return index;
+    }
+
+    private int indexBits() {
+        return factCount + Integer.bitCount(trackedRules);
+    }
+
+    private static long key(final int state, final int ruleMatchState) {
+        return (long) ruleMatchState << 32 | state & 0xFFFFFFFFL;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+/**
+ * <p>Controls {@code java.util.logging} tracing of the rule engine. While tracing is disabled,
+ * the library does not look up or query any {@link java.util.logging.Logger}, and its classes'
+ * static initializers do no logging work, which keeps startup cheap and class data sharing
+ * (CDS/AppCDS) archives effective.</p>
+ *
+ * <p>Tracing is enabled by default, logging at {@link java.util.logging.Level#FINE}. Start with
+ * tracing disabled via the system property {@value #PROPERTY}{@code =false}, and enable it later
+ * via {@link #setEnabled(boolean)}.</p>
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class Tracing {
+    /**
+     * The system property specifying whether tracing is initially enabled.
+     */
+    public static final String PROPERTY = "org.bubenheimer.rulez.tracing";
+
+    /**
+     * Whether tracing is enabled.
+     */
+    static volatile boolean enabled = !"false".equals(System.getProperty(PROPERTY));
+
+    private Tracing() {
+    }
+
+    /**
+     * @return whether tracing is enabled
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param enabled whether to enable tracing
+     */
+    public static void setEnabled(final boolean enabled) {
+        Tracing.enabled = enabled;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+import java.util.Arrays;
+
+/**
+ * <p>A bounded cache from (fact state, rule match state) at the start of an evaluation to the
+ * resulting fixpoint: the final fact state, the final rule match state and the rules fired. Set
+ * it on a rule base via {@link RuleBase#setTransitionCache(TransitionCache)}; it is shared by
+ * all {@link BreadthFirstRuleEngine}s evaluating the rule base, so that recurring transitions
+ * across sessions resolve with a single lookup.</p>
+ *
+ * <p>Only evaluations that exclusively fire rules with a {@link FactChangeAction} are cached.
+ * </p>
+ *
+ * <p>The cache is a set-associative primitive hash table with CLOCK eviction within each set,
+ * split into independently locked segments. Thread-safe.</p>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class TransitionCache {
+    /**
+     * The number of entries per set.
+     */
+    private static final int WAYS = 4;
+
+    /**
+     * The maximum number of segments.
+     */
+    private static final int MAX_SEGMENTS = 16;
+
+    private static final byte EMPTY = 0;
+
+    private static final byte PRESENT = 1;
+
+    private static final byte REFERENCED = 2;
+
+    private final Segment[] segments;
+
+    /**
+     * @param capacity the maximum number of cached transitions. Rounded up to a power of two.
+     */
+    public TransitionCache(final int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        final int sets = Math.max(1, ceilPowerOfTwo(capacity) / WAYS);
+        final int segmentCount = Math.min(MAX_SEGMENTS, sets);
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; ++i) {
+            segments[i] = new Segment(sets / segmentCount);
+        }
+    }
+
+    /**
+     * Removes all cached transitions.
+     */
+    public void clear() {
+        for (final Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Looks up a transition.
+     * @param state          the fact state at the start of the evaluation
+     * @param ruleMatchState the rule match state at the start of the evaluation
+     * @param transition     receives the final fact state, the final rule match state and the
+     *                       bit vector of fired rules
+     * @return whether the transition was found
+     */
+    boolean get(final int state, final int ruleMatchState, final int[] transition) {
+        final long key = key(state, ruleMatchState);
+        final long hash = hash(key);
+        return segment(hash).get(key, (int) hash, transition);
+    }
+
+    /**
+     * Caches a transition.
+     * @param state             the fact state at the start of the evaluation
+     * @param ruleMatchState    the rule match state at the start of the evaluation
+     * @param newState          the final fact state
+     * @param newRuleMatchState the final rule match state
+     * @param firedRules        the bit vector of fired rules
+     */
+    void put(final int state, final int ruleMatchState,
+             final int newState, final int newRuleMatchState, final int firedRules) {
+        final long key = key(state, ruleMatchState);
+        final long hash = hash(key);
+        segment(hash).put(key, (int) hash, newState, newRuleMatchState, firedRules);
+    }
+
+    private Segment segment(final long hash) {
+        return segments[(int) (hash >>> 32) & segments.length - 1];
+    }
+
+    private static long key(final int state, final int ruleMatchState) {
+        return (long) state << 32 | ruleMatchState & 0xFFFFFFFFL;
+    }
+
+    /**
+     * MurmurHash3 finalizer
+     */
+    private static long hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        key *= 0xC4CEB9FE1A85EC53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private static int ceilPowerOfTwo(final int n) {
+        return n == 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    private static final class Segment {
+        private final int setMask;
+
+        private final long[] keys;
+
+        /**
+         * Per entry: final fact state, final rule match state, fired rules
+         */
+        private final int[] values;
+
+        /**
+         * Per entry: {@link #EMPTY}, {@link #PRESENT} or {@link #REFERENCED}
+         */
+        private final byte[] flags;
+
+        /**
+         * Per set: the CLOCK hand
+         */
+        private final byte[] hands;
+
+        Segment(final int sets) {
+            setMask = sets - 1;
+            keys = new long[sets * WAYS];
+            values = new int[sets * WAYS * 3];
+            flags = new byte[sets * WAYS];
+            hands = new byte[sets];
+        }
+
+        synchronized void clear() {
+            Arrays.fill(flags, EMPTY);
+        }
+
+        synchronized boolean get(final long key, final int hash, final int[] transition) {
+            final int base = (hash & setMask) * WAYS;
+            for (int i = base; i < base + WAYS; ++i) {
+                if (flags[i] != EMPTY && keys[i] == key) {
+                    flags[i] = REFERENCED;
+                    transition[0] = values[i * 3];
+                    transition[1] = values[i * 3 + 1];
+                    transition[2] = values[i * 3 + 2];
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized void put(final long key, final int hash,
+                              final int newState, final int newRuleMatchState,
+                              final int firedRules) {
+            final int set = hash & setMask;
+            final int base = set * WAYS;
+            int slot = -1;
+            for (int i = base; i < base + WAYS; ++i) {
+                if (flags[i] == EMPTY) {
+                    if (slot < 0) {
+                        slot = i;
+                    }
+                } else if (keys[i] == key) {
+                    slot = i;
+                    break;
+                }
+            }
+            if (slot < 0) {
+                // CLOCK: clear reference bits until an unreferenced entry comes up
+                int hand = hands[set];
+                while (flags[base + hand] == REFERENCED) {
+                    flags[base + hand] = PRESENT;
+                    hand = (hand + 1) % WAYS;
+                }
+                slot = base + hand;
+                hands[set] = (byte) ((hand + 1) % WAYS);
+            }
+            keys[slot] = key;
+            flags[slot] = REFERENCED;
+            values[slot * 3] = newState;
+            values[slot * 3 + 1] = newRuleMatchState;
+            values[slot * 3 + 2] = firedRules;
+        }
+    }
+}
@@ -65,4 +65,84 @@ public interface WritableState {
      */
     @SuppressWarnings("unused")
     void addRemoveFacts(Fact[] addFacts, Fact[] removeFacts);
+
+    /**
+     * Adds a precomputed set of facts to the state.
+     * @param facts the facts to add
+     */
+    @SuppressWarnings("unused")
+    default void addFacts(final FactSet facts) {
+        addRemoveFacts(facts.factVector, 0);
+    }
+
+    /**
+     * Removes a precomputed set of facts from the state.
+     * @param facts the facts to remove
+     */
+    @SuppressWarnings("unused")
+    default void removeFacts(final FactSet facts) {
+        addRemoveFacts(0, facts.factVector);
+    }
+
+    /**
+     * Adds a precomputed set of facts to the state and removes a precomputed set of facts from
+     * the state in a single operation.
+     * @param addFacts      the facts to add
+     * @param removeFacts   the facts to remove
+     */
+    @SuppressWarnings("unused")
+    default void addRemoveFacts(final FactSet addFacts, final FactSet removeFacts) {
+        addRemoveFacts(addFacts.factVector, removeFacts.factVector);
+    }
+
+    /**
+     * Adds the facts from a fact bit vector to the state.
+     * @param factVector the fact bit vector of the facts to add
+     */
+    @SuppressWarnings("unused")
+    default void addFacts(final int factVector) {
+        addRemoveFacts(factVector, 0);
+    }
+
+    /**
+     * Removes the facts from a fact bit vector from the state.
+     * @param factVector the fact bit vector of the facts to remove
+     */
+    @SuppressWarnings("unused")
+    default void removeFacts(final int factVector) {
+        addRemoveFacts(0, factVector);
+    }
+
+    /**
+     * Adds facts to the state and removes facts from the state via two fact bit vectors in a
+     * single operation. The other bit vector and {@link FactSet} methods delegate to this method.
+     * @param addFactVector      the fact bit vector of the facts to add
+     * @param removeFactVector   the fact bit vector of the facts to remove
+     */
+    @SuppressWarnings("unused")
+    void addRemoveFacts(int addFactVector, int removeFactVector);
+
+    /**
+     * Sets a counter value, updating the counter's threshold facts. Supported by all states the
+     * library passes to rule actions, and by {@link FactState.Batch}; {@link ParallelRuleEngine}
+     * and {@link OffHeapSessionStore} reject rule bases with counters up front. The default
+     * implementation throws {@link UnsupportedOperationException}.
+     * @param counter the counter
+     * @param value   the counter value
+     */
+    @SuppressWarnings("unused")
+    default void setCounter(final Counter counter, final int value) {
+        throw new UnsupportedOperationException("Counters not supported");
+    }
+
+    /**
+     * Adds to a counter value, updating the counter's threshold facts. Supported like
+     * {@link #setCounter(Counter, int)}.
+     * @param counter the counter
+     * @param delta   the value to add
+     */
+    @SuppressWarnings("unused")
+    default void addToCounter(final Counter counter, final int delta) {
+        throw new UnsupportedOperationException("Counters not supported");
+    }
 }
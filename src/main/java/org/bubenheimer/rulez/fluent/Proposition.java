@@ -17,6 +17,7 @@
 
 package org.bubenheimer.rulez.fluent;
 
+import org.bubenheimer.rulez.Condition;
 import org.bubenheimer.rulez.Fact;
 import org.bubenheimer.rulez.Rule;
 import org.bubenheimer.rulez.RuleAction;
@@ -38,6 +39,18 @@ public final class Proposition {
         return when;
     }
 
+    /**
+     * Adds a boolean expression of facts to the rule's left-hand side. Multiple expressions
+     * are combined as a conjunction.
+     * @param condition the boolean expression
+     * @return this
+     */
+    @SuppressWarnings("unused")
+    public Proposition when(final Condition condition) {
+        rule.addCondition(condition);
+        return this;
+    }
+
     @SuppressWarnings("unused")
     public WhenNot whenNot(final Fact fact) {
         final WhenNot whenNot = new WhenNot(rule);
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>Runs {@link DifferentialHarness} comparisons of the engine implementations and optional
+ * evaluation strategies against their references, on random rule bases with modules, exclusive
+ * fact groups and state clears:</p>
+ * <ul>
+ *     <li>{@link BreadthFirstRuleEngine} against {@link ReferenceRuleEngine}, comparing the
+ *     order of rule firings</li>
+ *     <li>{@link BreadthFirstRuleEngine} with a compiled {@link MatchTable}</li>
+ *     <li>{@link BreadthFirstRuleEngine} with a {@link TransitionCache}</li>
+ *     <li>{@link OffHeapSessionStore}</li>
+ *     <li>{@link RuleEngineActor} coalescing fact changes against applying them one by one</li>
+ *     <li>{@link ParallelRuleEngine}, also on rule bases small enough to split into several
+ *     partitions</li>
+ * </ul>
+ *
+ * <p>Exits with status 1 if any comparison found a mismatch. Run via
+ * {@code ./gradlew differentialCheck -PdifferentialCheckArgs="rounds=10000"}.</p>
+ */
+public final class DifferentialCheck {
+    /**
+     * Options and their defaults.
+     */
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("rounds", "2000");
+        DEFAULTS.put("changesPerRound", "100");
+        DEFAULTS.put("clearPermille", "20");
+        DEFAULTS.put("seed", "1");
+    }
+
+    /**
+     * Creates {@link ReferenceRuleEngine}s.
+     */
+    private static final DifferentialHarness.EngineFactory REFERENCE =
+            new DifferentialHarness.EngineFactory() {
+                @Override
+                public @NotNull RuleEngine newRuleEngine(final RuleBase ruleBase) {
+                    final RuleEngine ruleEngine = new ReferenceRuleEngine();
+                    ruleEngine.setRuleBase(ruleBase);
+                    return ruleEngine;
+                }
+            };
+
+    /**
+     * Creates {@link BreadthFirstRuleEngine}s with a compiled {@link MatchTable}.
+     */
+    private static final DifferentialHarness.EngineFactory MATCH_TABLE =
+            new DifferentialHarness.EngineFactory() {
+                @Override
+                public @NotNull RuleEngine newRuleEngine(final RuleBase ruleBase) {
+                    if (!ruleBase.compileMatchTable()) {
+                        throw new IllegalStateException("Too many facts for a match table");
+                    }
+                    return DifferentialHarness.BREADTH_FIRST.newRuleEngine(ruleBase);
+                }
+            };
+
+    /**
+     * Creates {@link BreadthFirstRuleEngine}s with a {@link TransitionCache}.
+     */
+    private static final DifferentialHarness.EngineFactory TRANSITION_CACHE =
+            new DifferentialHarness.EngineFactory() {
+                @Override
+                public @NotNull RuleEngine newRuleEngine(final RuleBase ruleBase) {
+                    ruleBase.setTransitionCache(new TransitionCache(1024));
+                    return DifferentialHarness.BREADTH_FIRST.newRuleEngine(ruleBase);
+                }
+            };
+
+    /**
+     * Creates {@link ParallelRuleEngine}s.
+     */
+    private static final DifferentialHarness.EngineFactory PARALLEL =
+            new DifferentialHarness.EngineFactory() {
+                @Override
+                public @NotNull RuleEngine newRuleEngine(final RuleBase ruleBase) {
+                    final RuleEngine ruleEngine = new ParallelRuleEngine();
+                    ruleEngine.setRuleBase(ruleBase);
+                    return ruleEngine;
+                }
+            };
+
+    private DifferentialCheck() {
+    }
+
+    /**
+     * @param args options as {@code name=value} arguments
+     */
+    public static void main(final String[] args) {
+        final Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+        for (final String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator < 0 || !DEFAULTS.containsKey(arg.substring(0, separator))) {
+                System.out.println("Options (name=value) and defaults: " + DEFAULTS);
+                return;
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        final int rounds = Integer.parseInt(options.get("rounds"));
+        final int changesPerRound = Integer.parseInt(options.get("changesPerRound"));
+        final int clearPermille = Integer.parseInt(options.get("clearPermille"));
+        final long seed = Long.parseLong(options.get("seed"));
+        System.out.println("Options: " + options);
+
+        int mismatches = 0;
+        mismatches += run("Breadth-first vs. reference", newHarness(seed, changesPerRound,
+                clearPermille).setOrdered(true), REFERENCE,
+                DifferentialHarness.BREADTH_FIRST, rounds);
+        mismatches += run("Match table", newHarness(seed, changesPerRound, clearPermille)
+                .setOrdered(true).setMaxFacts(MatchTable.MAX_FACTS),
+                DifferentialHarness.BREADTH_FIRST, MATCH_TABLE, rounds);
+        mismatches += run("Transition cache", newHarness(seed, changesPerRound, clearPermille)
+                .setFactChangeActions(true),
+                DifferentialHarness.BREADTH_FIRST, TRANSITION_CACHE, rounds);
+        mismatches += run("Parallel", newHarness(seed, changesPerRound, clearPermille),
+                DifferentialHarness.BREADTH_FIRST, PARALLEL, rounds);
+        // Larger rule bases tend to end up in a single partition
+        mismatches += run("Parallel, 4 rules", newHarness(seed, changesPerRound, clearPermille)
+                .setMaxRules(4), DifferentialHarness.BREADTH_FIRST, PARALLEL, rounds);
+        DifferentialHarness.Report report = newHarness(seed, changesPerRound, clearPermille)
+                .setOrdered(true).compareOffHeap(rounds);
+        System.out.println("Off-heap store: " + report);
+        mismatches += report.getMismatches();
+        report = newHarness(seed, changesPerRound, clearPermille).compareBatching(rounds);
+        System.out.println("Actor batching: " + report);
+        mismatches += report.getMismatches();
+        if (mismatches != 0) {
+            System.exit(1);
+        }
+    }
+
+    private static DifferentialHarness newHarness(
+            final long seed, final int changesPerRound, final int clearPermille) {
+        return new DifferentialHarness(seed).setChangesPerRound(changesPerRound)
+                .setClearPermille(clearPermille).setModules(true).setExclusiveGroups(true);
+    }
+
+    private static int run(final String name, final DifferentialHarness harness,
+                           final DifferentialHarness.EngineFactory reference,
+                           final DifferentialHarness.EngineFactory candidate, final int rounds) {
+        final DifferentialHarness.Report report = harness.compare(reference, candidate, rounds);
+        System.out.println(name + ": " + report);
+        return report.getMismatches();
+    }
+}
@@ -0,0 +1,736 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>Randomized differential testing and benchmarking of rule engines. Generates random rule bases
+ * and random sequences of fact changes, runs them against a reference engine and a candidate
+ * engine, and compares the rules fired, the fact state and the rule match state after each
+ * change, as well as the time taken.</p>
+ *
+ * <p>Each engine gets its own rule base generated from the same seed, so that an engine factory
+ * may prepare the rule base, for example via {@link RuleBase#compileMatchTable()}. Rule actions
+ * stop changing facts after a few firings per fact change, so that evaluation terminates even for
+ * cyclic {@link Rule#MATCH_ALWAYS} rules. Actions declare their written facts and only read
+ * facts from their left-hand sides, as required by {@link ParallelRuleEngine}.</p>
+ *
+ * <p>Rule bases may optionally include {@link RuleModule}s and exclusive fact groups, and fact
+ * change sequences may clear the engines' state. With {@link #setFactChangeActions(boolean)},
+ * rule actions are {@link FactChangeAction}s instead, so that a {@link TransitionCache} can
+ * memoize evaluations.</p>
+ *
+ * <p>Not thread-safe.</p>
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class DifferentialHarness {
+    /**
+     * The number of firings per rule and fact change for which a rule action changes facts.
+     */
+    private static final int MAX_EFFECTIVE_FIRINGS = 4;
+
+    /**
+     * The number of sessions in an {@link OffHeapSessionStore} compared against.
+     */
+    private static final int OFF_HEAP_SESSIONS = 4;
+
+    /**
+     * Creates rule engines to compare.
+     */
+    public interface EngineFactory {
+        /**
+         * @param ruleBase the rule base. May be prepared further by the factory.
+         * @return a new rule engine with the given rule base set
+         */
+        @NotNull RuleEngine newRuleEngine(RuleBase ruleBase);
+    }
+
+    /**
+     * Creates {@link BreadthFirstRuleEngine}s, the reference implementation.
+     */
+    public static final EngineFactory BREADTH_FIRST = new EngineFactory() {
+        @Override
+        public @NotNull RuleEngine newRuleEngine(final RuleBase ruleBase) {
+            final RuleEngine ruleEngine = new BreadthFirstRuleEngine();
+            ruleEngine.setRuleBase(ruleBase);
+            return ruleEngine;
+        }
+    };
+
+    /**
+     * The outcome of a comparison.
+     */
+    public static final class Report {
+        int rounds;
+
+        int changes;
+
+        int mismatches;
+
+        long referenceNanos;
+
+        long candidateNanos;
+
+        String firstMismatch;
+
+        /**
+         * @return the number of random rule bases run
+         */
+        public int getRounds() {
+            return rounds;
+        }
+
+        /**
+         * @return the number of fact changes applied to each engine
+         */
+        public int getChanges() {
+            return changes;
+        }
+
+        /**
+         * @return the number of rounds in which the candidate diverged from the reference
+         */
+        public int getMismatches() {
+            return mismatches;
+        }
+
+        /**
+         * @return a description of the first divergence, or {@code null} if there was none
+         */
+        public String getFirstMismatch() {
+            return firstMismatch;
+        }
+
+        /**
+         * @return the time spent by the reference engine applying fact changes
+         */
+        public long getReferenceNanos() {
+            return referenceNanos;
+        }
+
+        /**
+         * @return the time spent by the candidate engine applying fact changes
+         */
+        public long getCandidateNanos() {
+            return candidateNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%d rounds, %d changes, %d mismatches; reference %.0f changes/s,"
+                            + " candidate %.0f changes/s%s",
+                    rounds, changes, mismatches, throughput(referenceNanos),
+                    throughput(candidateNanos),
+                    firstMismatch == null ? "" : "; first mismatch: " + firstMismatch);
+        }
+
+        private double throughput(final long nanos) {
+            return nanos == 0L ? 0.0 : changes * 1e9 / nanos;
+        }
+    }
+
+    /**
+     * Records rule firings during a fact change.
+     */
+    private static final class Recorder {
+        /**
+         * The number of firings per rule during the current fact change
+         */
+        final int[] fireCounts;
+
+        /**
+         * The rules fired during the current fact change, in order
+         */
+        int[] sequence = new int[64];
+
+        int sequenceLength;
+
+        /**
+         * Keeps the rule base strongly reachable while the recorder is in use, as rule engines
+         * only hold a weak reference to their rule base
+         */
+        RuleBase ruleBase;
+
+        Recorder(final int ruleCount) {
+            fireCounts = new int[ruleCount];
+        }
+
+        /**
+         * Records a firing. Synchronized, as candidate engines may fire rules concurrently.
+         * @param ruleIndex the rule index
+         * @return whether the rule action should still change facts
+         */
+        synchronized boolean fire(final int ruleIndex) {
+            if (sequenceLength == sequence.length) {
+                sequence = Arrays.copyOf(sequence, sequenceLength * 2);
+            }
+            sequence[sequenceLength++] = ruleIndex;
+            return ++fireCounts[ruleIndex] <= MAX_EFFECTIVE_FIRINGS;
+        }
+
+        synchronized void reset() {
+            Arrays.fill(fireCounts, 0);
+            sequenceLength = 0;
+        }
+
+        synchronized int[] getSequence(final boolean ordered) {
+            final int[] result = Arrays.copyOf(sequence, sequenceLength);
+            if (!ordered) {
+                Arrays.sort(result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A rule action recording its firing and changing a fixed set of facts.
+     */
+    private static final class RecordingAction implements RuleAction {
+        private final Recorder recorder;
+
+        private final int ruleIndex;
+
+        private final int addFactVector;
+
+        private final int removeFactVector;
+
+        RecordingAction(final Recorder recorder, final int ruleIndex,
+                        final int addFactVector, final int removeFactVector) {
+            this.recorder = recorder;
+            this.ruleIndex = ruleIndex;
+            this.addFactVector = addFactVector;
+            this.removeFactVector = removeFactVector;
+        }
+
+        @Override
+        public void fire(final ReadableState oldState, final WritableState newState) {
+            if (recorder.fire(ruleIndex)) {
+                newState.addRemoveFacts(addFactVector, removeFactVector);
+            }
+        }
+    }
+
+    /**
+     * The seed of the first round.
+     */
+    private final long seed;
+
+    private int maxFacts = RuleBase.MAX_FACTS;
+
+    private int maxRules = RuleBase.MAX_RULES;
+
+    private int changesPerRound = 100;
+
+    private boolean ordered = false;
+
+    private boolean modules = false;
+
+    private boolean exclusiveGroups = false;
+
+    private boolean factChangeActions = false;
+
+    private int clearPermille = 0;
+
+    /**
+     * Keeps the rule base of the current {@link #compareBatching(int)} round strongly reachable,
+     * as rule engines only hold a weak reference to their rule base.
+     */
+    private RuleBase batchingRuleBase;
+
+    /**
+     * @param seed the seed of the first round. Round {@code i} uses seed {@code seed + i}, so
+     *             that a failing round can be reproduced in isolation.
+     */
+    public DifferentialHarness(final long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param maxFacts the maximum number of facts per random rule base, between 1 and
+     *                 {@link RuleBase#MAX_FACTS}
+     * @return this
+     */
+    public @NotNull DifferentialHarness setMaxFacts(final int maxFacts) {
+        if (maxFacts < 1 || RuleBase.MAX_FACTS < maxFacts) {
+            throw new IllegalArgumentException("maxFacts: " + maxFacts);
+        }
+        this.maxFacts = maxFacts;
+        return this;
+    }
+
+    /**
+     * @param maxRules the maximum number of rules per random rule base, between 1 and
+     *                 {@link RuleBase#MAX_RULES}
+     * @return this
+     */
+    public @NotNull DifferentialHarness setMaxRules(final int maxRules) {
+        if (maxRules < 1 || RuleBase.MAX_RULES < maxRules) {
+            throw new IllegalArgumentException("maxRules: " + maxRules);
+        }
+        this.maxRules = maxRules;
+        return this;
+    }
+
+    /**
+     * @param changesPerRound the number of random fact changes per round
+     * @return this
+     */
+    public @NotNull DifferentialHarness setChangesPerRound(final int changesPerRound) {
+        if (changesPerRound < 1) {
+            throw new IllegalArgumentException("changesPerRound: " + changesPerRound);
+        }
+        this.changesPerRound = changesPerRound;
+        return this;
+    }
+
+    /**
+     * @param ordered whether to compare the order of rule firings within a fact change, rather
+     *                than just the number of firings per rule. Defaults to {@code false}, as
+     *                engines like {@link ParallelRuleEngine} leave the order unspecified.
+     * @return this
+     */
+    public @NotNull DifferentialHarness setOrdered(final boolean ordered) {
+        this.ordered = ordered;
+        return this;
+    }
+
+    /**
+     * @param modules whether to put rules into random, possibly nested, {@link RuleModule}s.
+     *                Defaults to {@code false}.
+     * @return this
+     */
+    public @NotNull DifferentialHarness setModules(final boolean modules) {
+        this.modules = modules;
+        return this;
+    }
+
+    /**
+     * @param exclusiveGroups whether to declare random exclusive fact groups. Defaults to
+     *                        {@code false}.
+     * @return this
+     */
+    public @NotNull DifferentialHarness setExclusiveGroups(final boolean exclusiveGroups) {
+        this.exclusiveGroups = exclusiveGroups;
+        return this;
+    }
+
+    /**
+     * @param factChangeActions whether rule actions are {@link FactChangeAction}s, which a
+     *                          {@link TransitionCache} can memoize. As these cannot stop changing
+     *                          facts, all rules are {@link Rule#MATCH_ONCE} rules, and as cached
+     *                          evaluations run no rule actions, rule firings are not compared.
+     *                          Defaults to {@code false}.
+     * @return this
+     */
+    public @NotNull DifferentialHarness setFactChangeActions(final boolean factChangeActions) {
+        this.factChangeActions = factChangeActions;
+        return this;
+    }
+
+    /**
+     * @param clearPermille the probability in permille of clearing the engines' state after a
+     *                      fact change, between 0 and 1000. Defaults to 0.
+     * @return this
+     */
+    public @NotNull DifferentialHarness setClearPermille(final int clearPermille) {
+        if (clearPermille < 0 || 1000 < clearPermille) {
+            throw new IllegalArgumentException("clearPermille: " + clearPermille);
+        }
+        this.clearPermille = clearPermille;
+        return this;
+    }
+
+    /**
+     * Compares a candidate engine against a reference engine.
+     * @param reference the reference engine factory, typically {@link #BREADTH_FIRST}
+     * @param candidate the candidate engine factory
+     * @param rounds    the number of random rule bases to run
+     * @return the comparison report
+     */
+    public @NotNull Report compare(
+            final EngineFactory reference, final EngineFactory candidate, final int rounds) {
+        final Report report = new Report();
+        for (int round = 0; round < rounds; ++round) {
+            final long roundSeed = seed + round;
+            final Random changeRandom = new Random(roundSeed);
+            final int[] changes = new int[2 * changesPerRound];
+            final boolean[] clears = new boolean[changesPerRound];
+
+            final Recorder referenceRecorder = new Recorder(maxRules);
+            final RuleBase referenceRuleBase = newRuleBase(roundSeed, referenceRecorder);
+            final RuleEngine referenceEngine = reference.newRuleEngine(referenceRuleBase);
+            final Recorder candidateRecorder = new Recorder(maxRules);
+            final RuleBase candidateRuleBase = newRuleBase(roundSeed, candidateRecorder);
+            final RuleEngine candidateEngine = candidate.newRuleEngine(candidateRuleBase);
+
+            final int factCount = referenceRuleBase.getFactCount();
+            for (int i = 0; i < changes.length; i += 2) {
+                changes[i] = oneHot(referenceRuleBase,
+                        randomFactVector(changeRandom, factCount, 2));
+                changes[i + 1] = randomFactVector(changeRandom, factCount, 2) & ~changes[i];
+                clears[i / 2] = changeRandom.nextInt(1000) < clearPermille;
+            }
+
+            for (int i = 0; i < changes.length; i += 2) {
+                referenceRecorder.reset();
+                long start = System.nanoTime();
+                referenceEngine.getFactState().addRemoveFacts(changes[i], changes[i + 1]);
+                report.referenceNanos += System.nanoTime() - start;
+
+                candidateRecorder.reset();
+                String mismatch = null;
+                start = System.nanoTime();
+                try {
+                    candidateEngine.getFactState().addRemoveFacts(changes[i], changes[i + 1]);
+                } catch (final RuntimeException e) {
+                    mismatch = "threw " + e;
+                }
+                report.candidateNanos += System.nanoTime() - start;
+
+                ++report.changes;
+
+                if (mismatch == null) {
+                    mismatch = diff(referenceEngine, referenceRecorder,
+                            candidateEngine, candidateRecorder);
+                }
+                if (mismatch != null) {
+                    if (report.firstMismatch == null) {
+                        report.firstMismatch = String.format(Locale.US,
+                                "seed %d, change %d: %s", roundSeed, i / 2, mismatch);
+                    }
+                    ++report.mismatches;
+                    break;
+                }
+
+                if (clears[i / 2]) {
+                    referenceEngine.clearState();
+                    candidateEngine.clearState();
+                }
+            }
+            ++report.rounds;
+        }
+        return report;
+    }
+
+    /**
+     * Compares an {@link OffHeapSessionStore} against {@link BreadthFirstRuleEngine}s, one per
+     * session, applying the fact changes to random sessions of the store.
+     * @param rounds the number of random rule bases to run
+     * @return the comparison report
+     */
+    public @NotNull Report compareOffHeap(final int rounds) {
+        final Report report = new Report();
+        final RuleEngine[] referenceEngines = new RuleEngine[OFF_HEAP_SESSIONS];
+        for (int round = 0; round < rounds; ++round) {
+            final long roundSeed = seed + round;
+            final Random changeRandom = new Random(roundSeed);
+
+            final Recorder referenceRecorder = new Recorder(maxRules);
+            final RuleBase referenceRuleBase = newRuleBase(roundSeed, referenceRecorder);
+            for (int i = 0; i < OFF_HEAP_SESSIONS; ++i) {
+                referenceEngines[i] = BREADTH_FIRST.newRuleEngine(referenceRuleBase);
+            }
+            final Recorder candidateRecorder = new Recorder(maxRules);
+            final OffHeapSessionStore store = new OffHeapSessionStore(
+                    newRuleBase(roundSeed, candidateRecorder), OFF_HEAP_SESSIONS);
+
+            final int factCount = referenceRuleBase.getFactCount();
+            for (int i = 0; i < changesPerRound; ++i) {
+                final int session = changeRandom.nextInt(OFF_HEAP_SESSIONS);
+                final int addFactVector = oneHot(referenceRuleBase,
+                        randomFactVector(changeRandom, factCount, 2));
+                final int removeFactVector =
+                        randomFactVector(changeRandom, factCount, 2) & ~addFactVector;
+                final boolean clear = changeRandom.nextInt(1000) < clearPermille;
+                final RuleEngine referenceEngine = referenceEngines[session];
+
+                referenceRecorder.reset();
+                long start = System.nanoTime();
+                referenceEngine.getFactState().addRemoveFacts(addFactVector, removeFactVector);
+                report.referenceNanos += System.nanoTime() - start;
+
+                candidateRecorder.reset();
+                String mismatch = null;
+                start = System.nanoTime();
+                try {
+                    store.addRemoveFacts(session, addFactVector, removeFactVector);
+                } catch (final RuntimeException e) {
+                    mismatch = "threw " + e;
+                }
+                report.candidateNanos += System.nanoTime() - start;
+
+                ++report.changes;
+
+                if (mismatch == null && !factChangeActions) {
+                    mismatch = diffFirings(referenceRecorder, candidateRecorder);
+                }
+                if (mismatch == null) {
+                    mismatch = diffStates(referenceEngine.getFactState().getState(),
+                            referenceEngine.getRuleMatchState(),
+                            store.getFactState(session),
+                            store.getRuleMatchState(session));
+                }
+                if (mismatch != null) {
+                    if (report.firstMismatch == null) {
+                        report.firstMismatch = String.format(Locale.US,
+                                "seed %d, change %d: %s", roundSeed, i, mismatch);
+                    }
+                    ++report.mismatches;
+                    break;
+                }
+
+                if (clear) {
+                    referenceEngine.clearState();
+                    store.clear(session);
+                }
+            }
+            ++report.rounds;
+        }
+        return report;
+    }
+
+    /**
+     * Compares a {@link RuleEngineActor}, which coalesces a burst of fact changes into a single
+     * state change, against applying the changes one by one. The random rule bases have facts and,
+     * if enabled, exclusive fact groups, but no rules, so that the outcome does not depend on
+     * evaluations in between. Each change adds at most one fact per group, while successive
+     * changes may add different facts of the same group.
+     * @param rounds the number of random rule bases to run
+     * @return the comparison report
+     */
+    public @NotNull Report compareBatching(final int rounds) {
+        final Report report = new Report();
+        final ArrayList<Runnable> drainTasks = new ArrayList<>();
+        final Executor executor = new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                drainTasks.add(command);
+            }
+        };
+        for (int round = 0; round < rounds; ++round) {
+            final long roundSeed = seed + round;
+            final Random changeRandom = new Random(roundSeed);
+            final RuleBase ruleBase = new RuleBase();
+            batchingRuleBase = ruleBase;
+            final int factCount = newFacts(new Random(~roundSeed), ruleBase).length;
+            final RuleEngine referenceEngine = BREADTH_FIRST.newRuleEngine(ruleBase);
+            final RuleEngine candidateEngine = BREADTH_FIRST.newRuleEngine(ruleBase);
+            final RuleEngineActor actor =
+                    new RuleEngineActor(candidateEngine, changesPerRound, executor);
+
+            String mismatch = null;
+            for (int i = 0; i < changesPerRound; ++i) {
+                final int addFactVector =
+                        oneHot(ruleBase, randomFactVector(changeRandom, factCount, 2));
+                final int removeFactVector =
+                        randomFactVector(changeRandom, factCount, 2) & ~addFactVector;
+                final long start = System.nanoTime();
+                referenceEngine.getFactState().addRemoveFacts(addFactVector, removeFactVector);
+                report.referenceNanos += System.nanoTime() - start;
+                actor.offer(addFactVector, removeFactVector);
+                ++report.changes;
+            }
+            final long start = System.nanoTime();
+            try {
+                for (int i = 0; i < drainTasks.size(); ++i) {
+                    drainTasks.get(i).run();
+                }
+            } catch (final RuntimeException e) {
+                mismatch = "threw " + e;
+            }
+            report.candidateNanos += System.nanoTime() - start;
+            drainTasks.clear();
+
+            if (mismatch == null) {
+                // Coalesced fact changes may skip rule firings in between, so compare facts only
+                mismatch = diffStates(referenceEngine.getFactState().getState(), 0,
+                        candidateEngine.getFactState().getState(), 0);
+            }
+            if (mismatch != null) {
+                if (report.firstMismatch == null) {
+                    report.firstMismatch =
+                            String.format(Locale.US, "seed %d: %s", roundSeed, mismatch);
+                }
+                ++report.mismatches;
+            }
+            ++report.rounds;
+        }
+        batchingRuleBase = null;
+        return report;
+    }
+
+    private String diff(final RuleEngine referenceEngine, final Recorder referenceRecorder,
+                        final RuleEngine candidateEngine, final Recorder candidateRecorder) {
+        String mismatch = null;
+        if (!factChangeActions) {
+            mismatch = diffFirings(referenceRecorder, candidateRecorder);
+        }
+        if (mismatch == null) {
+            mismatch = diffStates(referenceEngine.getFactState().getState(),
+                    referenceEngine.getRuleMatchState(),
+                    candidateEngine.getFactState().getState(),
+                    candidateEngine.getRuleMatchState());
+        }
+        return mismatch;
+    }
+
+    private String diffFirings(final Recorder referenceRecorder, final Recorder candidateRecorder) {
+        final int[] referenceSequence = referenceRecorder.getSequence(ordered);
+        final int[] candidateSequence = candidateRecorder.getSequence(ordered);
+        if (!Arrays.equals(referenceSequence, candidateSequence)) {
+            return "fired " + Arrays.toString(candidateSequence)
+                    + ", expected " + Arrays.toString(referenceSequence);
+        }
+        return null;
+    }
+
+    private static String diffStates(final int referenceState, final int referenceMatchState,
+                                     final int candidateState, final int candidateMatchState) {
+        if (referenceState != candidateState) {
+            return "state " + RuleEngine.formatState(candidateState)
+                    + ", expected " + RuleEngine.formatState(referenceState);
+        }
+        if (referenceMatchState != candidateMatchState) {
+            return "rule match state " + RuleEngine.formatState(candidateMatchState)
+                    + ", expected " + RuleEngine.formatState(referenceMatchState);
+        }
+        return null;
+    }
+
+    /**
+     * Generates a random rule base.
+     * @param seed     the seed
+     * @param recorder the recorder for rule firings
+     * @return the rule base
+     */
+    private RuleBase newRuleBase(final long seed, final Recorder recorder) {
+        final Random random = new Random(~seed);
+        final RuleBase ruleBase = new RuleBase();
+        recorder.ruleBase = ruleBase;
+        final Fact[] facts = newFacts(random, ruleBase);
+        final int factCount = facts.length;
+        final int moduleCount = modules ? random.nextInt(4) : 0;
+        for (int i = 0; i < moduleCount; ++i) {
+            final int enclosingGate =
+                    i == 0 || random.nextBoolean() ? 0 : ruleBase.moduleGates[random.nextInt(i)];
+            ruleBase.newModule(enclosingGate, facts[random.nextInt(factCount)]);
+        }
+        final int ruleCount = 1 + random.nextInt(maxRules);
+        for (int i = 0; i < ruleCount; ++i) {
+            final Rule rule = new Rule("r" + i,
+                    factChangeActions ? Rule.MATCH_ONCE : random.nextInt(3));
+            final int conditionCount = random.nextInt(3);
+            for (int j = 0; j < conditionCount; ++j) {
+                rule.addCondition(randomFactVector(random, factCount, 3));
+            }
+            if (random.nextBoolean()) {
+                rule.addNegCondition(randomFactVector(random, factCount, 2));
+            }
+            if (random.nextInt(4) == 0) {
+                rule.addCondition(Condition.or(
+                        Condition.fact(facts[random.nextInt(factCount)]),
+                        Condition.not(Condition.allOf(facts[random.nextInt(factCount)],
+                                facts[random.nextInt(factCount)]))));
+            }
+            final int addFactVector =
+                    oneHot(ruleBase, randomFactVector(random, factCount, 2));
+            final int removeFactVector = randomFactVector(random, factCount, 2) & ~addFactVector;
+            rule.setRuleAction(factChangeActions
+                    ? new FactChangeAction(addFactVector, removeFactVector)
+                    : new RecordingAction(recorder, i, addFactVector, removeFactVector));
+            rule.setWrittenFacts(factsOf(facts, addFactVector | removeFactVector));
+            if (moduleCount == 0 || random.nextBoolean()) {
+                ruleBase.addRule(rule);
+            } else {
+                ruleBase.addRule(rule, random.nextInt(moduleCount));
+            }
+        }
+        return ruleBase;
+    }
+
+    /**
+     * Generates random facts and, if enabled, random exclusive fact groups.
+     * @param random   the random number generator
+     * @param ruleBase the rule base
+     * @return the facts
+     */
+    private Fact[] newFacts(final Random random, final RuleBase ruleBase) {
+        final int factCount = 1 + random.nextInt(maxFacts);
+        final Fact[] facts = new Fact[factCount];
+        for (int i = 0; i < factCount; ++i) {
+            facts[i] = ruleBase.newFact("f" + i);
+        }
+        if (exclusiveGroups) {
+            final int groupCount = random.nextInt(4);
+            for (int i = 0; i < groupCount; ++i) {
+                final int group = randomFactVector(random, factCount, 3) & ~ruleBase.exclusiveFacts;
+                if (Integer.bitCount(group) > 1) {
+                    ruleBase.newExclusiveGroup(factsOf(facts, group));
+                }
+            }
+        }
+        return facts;
+    }
+
+    /**
+     * @param random    the random number generator
+     * @param factCount the number of facts
+     * @param maxBits   the maximum number of facts in the vector
+     * @return a random non-empty fact vector
+     */
+    private static int randomFactVector(
+            final Random random, final int factCount, final int maxBits) {
+        int factVector = 0;
+        final int bits = 1 + random.nextInt(maxBits);
+        for (int i = 0; i < bits; ++i) {
+            factVector |= 1 << random.nextInt(factCount);
+        }
+        return factVector;
+    }
+
+    /**
+     * @param ruleBase   the rule base
+     * @param factVector the facts to add
+     * @return the facts to add, keeping only the lowest fact of each exclusive group
+     */
+    private static int oneHot(final RuleBase ruleBase, int factVector) {
+        for (final int group : ruleBase.exclusiveGroups) {
+            final int members = factVector & group;
+            factVector &= ~members | Integer.lowestOneBit(members);
+        }
+        return factVector;
+    }
+
+    private static Fact[] factsOf(final Fact[] facts, final int factVector) {
+        final ArrayList<Fact> result = new ArrayList<>(Integer.bitCount(factVector));
+        for (final Fact fact : facts) {
+            if ((factVector & 1 << fact.id) != 0) {
+                result.add(fact);
+            }
+        }
+        return result.toArray(new Fact[0]);
+    }
+}
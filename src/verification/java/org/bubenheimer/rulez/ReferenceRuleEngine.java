@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2015-2026 Uli Bubenheimer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.bubenheimer.rulez;
+
+/**
+ * <p>A straightforward rule engine serving as the reference for {@link DifferentialHarness}. Each
+ * evaluation pass tests every rule in order, with no rule masks, change narrowing, match tables or
+ * transition caches, treating a rule's module gate as part of its left-hand side.</p>
+ *
+ * <p>Not thread-safe.</p>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class ReferenceRuleEngine extends RuleEngine {
+    /**
+     * A bit mask for the match state of all rules. Indicates whether a rule has already fired.
+     */
+    private int ruleMatchState = 0;
+
+    /**
+     * Indicates whether evaluation needs to continue with another pass.
+     */
+    private boolean evaluationScheduled = false;
+
+    /**
+     * Indicates whether we are currently evaluating the rule base.
+     */
+    private boolean isEvaluating = false;
+
+    /**
+     * The fact state at the start of the current pass, to pass to rule actions.
+     */
+    private final StateSnapshot baseState = new StateSnapshot();
+
+    @Override
+    protected int getRuleMatchState() {
+        return ruleMatchState;
+    }
+
+    @Override
+    public void clearState() {
+        super.clearState();
+        ruleMatchState = 0;
+    }
+
+    @Override
+    public void setRuleBase(final RuleBase ruleBase) {
+        super.setRuleBase(ruleBase);
+        ruleMatchState = 0;
+    }
+
+    @Override
+    protected void scheduleEvaluation() {
+        if (isEvaluating) {
+            evaluationScheduled = true;
+            return;
+        }
+
+        isEvaluating = true;
+        do {
+            evaluationScheduled = false;
+            evaluate();
+        } while (evaluationScheduled);
+
+        isEvaluating = false;
+
+        handleEvaluationEnd();
+    }
+
+    /**
+     * Evaluates the rule base.
+     */
+    private void evaluate() {
+        final RuleBase ruleBase = getRuleBase();
+        if (ruleBase == null) {
+            return;
+        }
+        final int state = getFactState().getState();
+        baseState.state = state;
+        int evaluatedMask = 1;
+        final int ruleCount = ruleBase.rules.size();
+        for (int i = 0; i < ruleCount; ++i) {
+            final Rule rule = ruleBase.rules.get(i);
+            if (rule.matchType != Rule.MATCH_ONCE
+                    || (ruleMatchState & evaluatedMask) == 0) {
+                if ((state & rule.gate) == rule.gate && rule.eval(state)) {
+                    if (rule.matchType == Rule.MATCH_ALWAYS
+                            || (ruleMatchState & evaluatedMask) == 0) {
+                        ruleMatchState |= evaluatedMask;
+                        rule.ruleAction.fire(baseState, getFactState());
+                    }
+                } else if (rule.matchType == Rule.MATCH_RESET
+                        && (ruleMatchState & evaluatedMask) != 0) {
+                    ruleMatchState ^= evaluatedMask;
+                }
+            }
+            evaluatedMask <<= 1;
+        }
+    }
+}